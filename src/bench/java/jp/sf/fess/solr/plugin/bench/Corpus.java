@@ -0,0 +1,137 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Loads a corpus bundled with the benchmarks. Each line is a document.
+ * <p>
+ * The bundled corpora are a few KB. A name with {@link #LARGE_SUFFIX},
+ * such as ja-large, generates larger documents from the lines of the
+ * bundled corpus with a fixed seed, so that every run sees the same text.
+ * </p>
+ */
+public final class Corpus {
+    public static final String LARGE_SUFFIX = "-large";
+
+    private static final long SEED = 20141018L;
+
+    private static final int LARGE_DOCUMENT_NUM = 200;
+
+    private static final int LARGE_DOCUMENT_LENGTH = 16 * 1024;
+
+    private Corpus() {
+    }
+
+    public static List<String> load(final String name) throws IOException {
+        if (name.endsWith(LARGE_SUFFIX)) {
+            return generate(
+                    load(name.substring(0,
+                            name.length() - LARGE_SUFFIX.length())),
+                    LARGE_DOCUMENT_NUM, LARGE_DOCUMENT_LENGTH);
+        }
+
+        final InputStream in = Corpus.class.getResourceAsStream(name + ".txt");
+        if (in == null) {
+            throw new IllegalArgumentException("Unknown corpus: " + name);
+        }
+        final List<String> lines = new ArrayList<String>();
+        try (final BufferedReader br = new BufferedReader(
+                new InputStreamReader(in, "UTF-8"))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.length() > 0) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return documentNum documents of at least documentLength chars,
+     * made of randomly chosen lines
+     */
+    public static List<String> generate(final List<String> lines,
+            final int documentNum, final int documentLength) {
+        final Random random = new Random(SEED);
+        final List<String> documents = new ArrayList<String>(documentNum);
+        final StringBuilder buf = new StringBuilder(documentLength + 1024);
+        for (int i = 0; i < documentNum; i++) {
+            buf.setLength(0);
+            while (buf.length() < documentLength) {
+                buf.append(lines.get(random.nextInt(lines.size()))).append(
+                        ' ');
+            }
+            documents.add(buf.toString());
+        }
+        return documents;
+    }
+
+    /**
+     * @return num synonym rules in the solr format, each of which has two
+     * or three words of 2 to 5 letters taken from lines
+     */
+    public static String generateSynonyms(final List<String> lines,
+            final int num) {
+        final Random random = new Random(SEED);
+        final StringBuilder buf = new StringBuilder(num * 16);
+        for (int i = 0; i < num; i++) {
+            final int wordNum = 2 + random.nextInt(2);
+            for (int j = 0; j < wordNum; j++) {
+                if (j > 0) {
+                    buf.append(',');
+                }
+                buf.append(randomWord(lines, random));
+            }
+            buf.append('\n');
+        }
+        return buf.toString();
+    }
+
+    private static String randomWord(final List<String> lines,
+            final Random random) {
+        while (true) {
+            final String line = lines.get(random.nextInt(lines.size()));
+            final int length = 2 + random.nextInt(4);
+            if (line.length() < length) {
+                continue;
+            }
+            final int start = random.nextInt(line.length() - length + 1);
+            final String word = line.substring(start, start + length);
+            if (isLetters(word)) {
+                return word;
+            }
+        }
+    }
+
+    private static boolean isLetters(final String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (!Character.isLetter(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
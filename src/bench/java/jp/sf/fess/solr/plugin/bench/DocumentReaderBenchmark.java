@@ -0,0 +1,130 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jp.sf.fess.solr.plugin.suggest.TestUtils;
+import jp.sf.fess.solr.plugin.suggest.entity.SuggestFieldInfo;
+import jp.sf.fess.solr.plugin.suggest.index.BadWordFilter;
+import jp.sf.fess.solr.plugin.suggest.index.DocumentReader;
+import jp.sf.fess.suggest.converter.SuggestReadingConverter;
+import jp.sf.fess.suggest.entity.SuggestItem;
+import jp.sf.fess.suggest.normalizer.SuggestNormalizer;
+
+import org.apache.lucene.analysis.util.TokenizerFactory;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.DateUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads suggest items from a corpus. reuseTokenizer=false creates a
+ * tokenizer per document and field as the reader did before.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class DocumentReaderBenchmark {
+    private static final String EXPIRES_FIELD = "expires_dt";
+
+    private static final String SEGMENT_FIELD = "segment";
+
+    @Param({ "ja", "en", "ja-large", "en-large" })
+    public String corpus;
+
+    @Param({ "true", "false" })
+    public boolean reuseTokenizer;
+
+    @Param({ "false", "true" })
+    public boolean streaming;
+
+    private final List<String> fieldNameList = Arrays.asList("content");
+
+    private final List<String> labelFieldList = Collections.emptyList();
+
+    private final List<String> roleFieldList = Collections.emptyList();
+
+    private final List<SolrInputDocument> docList = new ArrayList<SolrInputDocument>();
+
+    private TokenizerFactory tokenizerFactory;
+
+    private SuggestReadingConverter suggestReadingConverter;
+
+    private SuggestNormalizer suggestNormalizer;
+
+    private SuggestFieldInfo suggestFieldInfo;
+
+    @Setup
+    public void setup() throws IOException {
+        tokenizerFactory = TestUtils.getTokenizerFactory(TestUtils
+                .getSuggestUpdateConfig());
+        suggestReadingConverter = TestUtils.createConverter();
+        suggestNormalizer = TestUtils.createNormalizer();
+        suggestFieldInfo = new SuggestFieldInfo(fieldNameList,
+                tokenizerFactory, suggestReadingConverter, suggestNormalizer);
+        suggestFieldInfo.setStreaming(streaming);
+
+        final String expires = DateUtil.getThreadLocalDateFormat().format(
+                new Date());
+        for (final String line : Corpus.load(corpus)) {
+            final SolrInputDocument doc = new SolrInputDocument();
+            doc.setField("content", line);
+            doc.setField(EXPIRES_FIELD, expires);
+            docList.add(doc);
+        }
+    }
+
+    @Benchmark
+    public void next(final Blackhole bh) throws IOException {
+        for (final SolrInputDocument doc : docList) {
+            final DocumentReader reader;
+            if (reuseTokenizer) {
+                reader = new DocumentReader(suggestFieldInfo, doc,
+                        labelFieldList, roleFieldList, EXPIRES_FIELD,
+                        SEGMENT_FIELD, BadWordFilter.EMPTY);
+            } else {
+                reader = new DocumentReader(tokenizerFactory,
+                        suggestReadingConverter, suggestNormalizer, doc,
+                        fieldNameList, labelFieldList, roleFieldList,
+                        EXPIRES_FIELD, SEGMENT_FIELD, new HashSet<String>());
+            }
+            SuggestItem item;
+            while ((item = reader.next()) != null) {
+                bh.consume(item);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.bench;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import jp.sf.fess.solr.plugin.analysis.ja.JapaneseNumberFilter;
+
+import org.apache.lucene.analysis.core.KeywordTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class JapaneseNumberFilterBenchmark {
+    private static final String[] NUMBERS = { "〇", "十", "二〇一四", "三千五百",
+            "百二十万", "一億二千三百四十五万六千七百八十九", "１２３", "1,234,567", "3.14",
+            "２．５", "十二万三千四百五十六", "千", "1千万", "七〇〇〇" };
+
+    private JapaneseNumberFilter filter;
+
+    @Setup
+    public void setup() {
+        filter = new JapaneseNumberFilter(new KeywordTokenizer(
+                new StringReader("")));
+    }
+
+    @Benchmark
+    public void normalizeNumber(final Blackhole bh) {
+        for (final String number : NUMBERS) {
+            bh.consume(filter.normalizeNumber(number));
+        }
+    }
+}
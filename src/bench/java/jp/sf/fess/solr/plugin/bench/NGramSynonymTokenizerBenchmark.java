@@ -0,0 +1,136 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jp.sf.fess.solr.plugin.analysis.synonym.NGramSynonymTokenizerFactory;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.apache.lucene.analysis.util.FilesystemResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Tokenizes a corpus. synonyms=large adds {@link #LARGE_SYNONYM_NUM}
+ * rules generated from the corpus to the bundled synonyms.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class NGramSynonymTokenizerBenchmark {
+    private static final int LARGE_SYNONYM_NUM = 50000;
+
+    @Param({ "ja", "en", "ja-large", "en-large" })
+    public String corpus;
+
+    @Param({ "true", "false" })
+    public boolean expand;
+
+    @Param({ "bundled", "large", "none" })
+    public String synonyms;
+
+    private List<String> lines;
+
+    private Tokenizer tokenizer;
+
+    private CharTermAttribute termAtt;
+
+    private File synonymDir;
+
+    @Setup
+    public void setup() throws IOException {
+        lines = Corpus.load(corpus);
+
+        final Map<String, String> args = new HashMap<String, String>();
+        args.put("expand", Boolean.toString(expand));
+        ResourceLoader loader = new ClasspathResourceLoader(Corpus.class);
+        if ("bundled".equals(synonyms)) {
+            args.put("synonyms", "synonyms.txt");
+        } else if ("large".equals(synonyms)) {
+            synonymDir = Files.createTempDirectory("synonyms").toFile();
+            try (InputStream in = loader.openResource("synonyms.txt");
+                    OutputStream out = new FileOutputStream(new File(
+                            synonymDir, "synonyms.txt"))) {
+                final byte[] buf = new byte[8192];
+                int len;
+                while ((len = in.read(buf)) != -1) {
+                    out.write(buf, 0, len);
+                }
+                out.write(Corpus.generateSynonyms(
+                        Corpus.load(corpus.replace(Corpus.LARGE_SUFFIX, "")),
+                        LARGE_SYNONYM_NUM).getBytes(Charset.forName("UTF-8")));
+            }
+            args.put("synonyms", "synonyms.txt");
+            loader = new FilesystemResourceLoader(synonymDir);
+        }
+        final NGramSynonymTokenizerFactory factory = new NGramSynonymTokenizerFactory(
+                args);
+        factory.inform(loader);
+        tokenizer = factory.create(new StringReader(""));
+        termAtt = tokenizer.addAttribute(CharTermAttribute.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (synonymDir != null) {
+            for (final File file : synonymDir.listFiles()) {
+                file.delete();
+            }
+            synonymDir.delete();
+        }
+    }
+
+    @Benchmark
+    public void incrementToken(final Blackhole bh) throws IOException {
+        for (final String line : lines) {
+            tokenizer.setReader(new StringReader(line));
+            tokenizer.reset();
+            while (tokenizer.incrementToken()) {
+                bh.consume(termAtt);
+            }
+            tokenizer.end();
+            tokenizer.close();
+        }
+    }
+}
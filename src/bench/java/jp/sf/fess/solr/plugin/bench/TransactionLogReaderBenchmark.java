@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import jp.sf.fess.solr.plugin.suggest.index.TransactionLogReader;
+
+import org.apache.solr.update.UpdateLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses the test tlog as TransactionLogParseTask does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class TransactionLogReaderBenchmark {
+    private static final String TLOG_NAME = "tlog.0000000000000000059";
+
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("tlog", ".bench");
+        try (final InputStream in = TransactionLogReaderBenchmark.class
+                .getResourceAsStream("/" + TLOG_NAME)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public void parse(final Blackhole bh) throws IOException {
+        try (final TransactionLogReader reader = new TransactionLogReader(
+                file, 0)) {
+            Object o;
+            while ((o = reader.next()) != null) {
+                @SuppressWarnings("unchecked")
+                final List<Object> entry = (List<Object>) o;
+                final int oper = (Integer) entry.get(0)
+                        & UpdateLog.OPERATION_MASK;
+                bh.consume(oper);
+                bh.consume(entry.get(entry.size() - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.bench;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import jp.sf.fess.solr.plugin.search.WordFreqValueSourceParser.WordFreqValueSource;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Computes wordfreq(content, word) for every document of an index built
+ * from a corpus.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Thread)
+public class WordFreqValueSourceBenchmark {
+    private static final String FIELD = "content";
+
+    @Param({ "ja:検索", "en:search" })
+    public String query;
+
+    @Param({ "40" })
+    public int copies;
+
+    private RAMDirectory directory;
+
+    private DirectoryReader reader;
+
+    private final Map<Object, Object> context = new HashMap<Object, Object>();
+
+    private WordFreqValueSource valueSource;
+
+    @Setup
+    public void setup() throws IOException {
+        final String[] values = query.split(":", 2);
+        final List<String> lines = Corpus.load(values[0]);
+
+        directory = new RAMDirectory();
+        final IndexWriterConfig config = new IndexWriterConfig(
+                Version.LUCENE_4_10_0, new WhitespaceAnalyzer(
+                        Version.LUCENE_4_10_0));
+        try (final IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int i = 0; i < copies; i++) {
+                for (final String line : lines) {
+                    final Document doc = new Document();
+                    doc.add(new TextField(FIELD, line, Field.Store.YES));
+                    writer.addDocument(doc);
+                }
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+        context.put("searcher", new IndexSearcher(reader));
+        valueSource = new WordFreqValueSource(FIELD, values[1], true);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public void intVal(final Blackhole bh) throws IOException {
+        for (final AtomicReaderContext leaf : reader.leaves()) {
+            final FunctionValues values = valueSource.getValues(context, leaf);
+            final int maxDoc = leaf.reader().maxDoc();
+            for (int docId = 0; docId < maxDoc; docId++) {
+                bh.consume(values.intVal(docId));
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.analysis.synonym;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.fst.IntsRefFSTEnum;
+
+/**
+ * Synonym dictionary compiled into a file and memory-mapped, so that a
+ * large dictionary is paged in by the OS instead of being held on the heap.
+ * <p>
+ * The inputs of the FST of SynonymMap are stored as a trie in breadth-first
+ * order, so the children of a node are consecutive and looked up by a
+ * binary search on their code points, and each final node refers to the
+ * output of the FST. The words of SynonymMap are stored by ord.
+ * </p>
+ * <pre>
+ * header    : MAGIC, VERSION, maxHorizontalContext, nodeNum, wordNum,
+ *             outputsLength, wordsLength
+ * nodes     : labels[nodeNum], firstChild[nodeNum], childCount[nodeNum],
+ *             outputOffsets[nodeNum] (-1 if not final)
+ * words     : wordOffsets[wordNum + 1]
+ * outputs   : (length, bytes)*
+ * wordBytes : bytes*
+ * </pre>
+ */
+public class MappedSynonymDictionary extends SynonymDictionary {
+    public static final String SUFFIX = ".dic";
+
+    private static final int MAGIC = 0x4e475344; // NGSD
+
+    private static final int VERSION = 0;
+
+    private static final int HEADER_SIZE = 7 * 4;
+
+    private static final int ROOT = 0;
+
+    private final File file;
+
+    private final ByteBuffer buffer;
+
+    private final int maxHorizontalContext;
+
+    private final int nodeNum;
+
+    private final int wordNum;
+
+    private final int labelsPos;
+
+    private final int firstChildPos;
+
+    private final int childCountPos;
+
+    private final int outputOffsetsPos;
+
+    private final int wordOffsetsPos;
+
+    private final int outputsPos;
+
+    private final int wordsPos;
+
+    private MappedSynonymDictionary(final File file, final ByteBuffer buffer)
+            throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Invalid synonym dictionary: " + file);
+        }
+        final int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version + ": "
+                    + file);
+        }
+        maxHorizontalContext = buffer.getInt(8);
+        nodeNum = buffer.getInt(12);
+        wordNum = buffer.getInt(16);
+        final int outputsLength = buffer.getInt(20);
+        final int wordsLength = buffer.getInt(24);
+
+        final long size = HEADER_SIZE + 16L * nodeNum + 4L * (wordNum + 1)
+                + outputsLength + wordsLength;
+        if (nodeNum < 1 || wordNum < 0 || outputsLength < 0
+                || wordsLength < 0 || size != buffer.capacity()) {
+            throw new IOException("Corrupted synonym dictionary: " + file);
+        }
+        labelsPos = HEADER_SIZE;
+        firstChildPos = labelsPos + 4 * nodeNum;
+        childCountPos = firstChildPos + 4 * nodeNum;
+        outputOffsetsPos = childCountPos + 4 * nodeNum;
+        wordOffsetsPos = outputOffsetsPos + 4 * nodeNum;
+        outputsPos = wordOffsetsPos + 4 * (wordNum + 1);
+        wordsPos = outputsPos + outputsLength;
+    }
+
+    /**
+     * Maps file written by {@link #write(SynonymMap, File)}. The mapping is
+     * released when the dictionary is garbage collected.
+     */
+    public static MappedSynonymDictionary open(final File file)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Too large synonym dictionary: " + file);
+            }
+            final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0,
+                    channel.size());
+            return new MappedSynonymDictionary(file, buffer);
+        }
+    }
+
+    /**
+     * Compiles map into file atomically.
+     */
+    public static void write(final SynonymMap map, final File file)
+            throws IOException {
+        final List<int[]> inputs = new ArrayList<int[]>();
+        final List<BytesRef> outputs = new ArrayList<BytesRef>();
+        final IntsRefFSTEnum<BytesRef> fstEnum = new IntsRefFSTEnum<BytesRef>(
+                map.fst);
+        IntsRefFSTEnum.InputOutput<BytesRef> io;
+        while ((io = fstEnum.next()) != null) {
+            final IntsRef input = io.input;
+            inputs.add(Arrays.copyOfRange(input.ints, input.offset,
+                    input.offset + input.length));
+            outputs.add(BytesRef.deepCopyOf(io.output));
+        }
+
+        // inputs are sorted, and each node covers inputs[lo, hi) which
+        // share a prefix of depth code points
+        final int size = inputs.size();
+        int capacity = Math.max(16, size);
+        int[] labels = new int[capacity];
+        int[] los = new int[capacity];
+        int[] his = new int[capacity];
+        int[] depths = new int[capacity];
+        int[] firstChild = new int[capacity];
+        int[] childCount = new int[capacity];
+        int[] outputOffsets = new int[capacity];
+        final ByteArrayOutputStream outputBytes = new ByteArrayOutputStream();
+        final DataOutputStream outputOut = new DataOutputStream(outputBytes);
+        his[ROOT] = size;
+        int nodeCount = 1;
+        for (int node = 0; node < nodeCount; node++) {
+            final int hi = his[node];
+            final int depth = depths[node];
+            int i = los[node];
+            outputOffsets[node] = -1;
+            if (i < hi && inputs.get(i).length == depth) {
+                final BytesRef output = outputs.get(i);
+                outputOffsets[node] = outputOut.size();
+                outputOut.writeInt(output.length);
+                outputOut.write(output.bytes, output.offset, output.length);
+                i++;
+            }
+
+            firstChild[node] = nodeCount;
+            while (i < hi) {
+                final int label = inputs.get(i)[depth];
+                int j = i + 1;
+                while (j < hi && inputs.get(j)[depth] == label) {
+                    j++;
+                }
+                if (nodeCount == capacity) {
+                    capacity = capacity + (capacity >> 1);
+                    labels = Arrays.copyOf(labels, capacity);
+                    los = Arrays.copyOf(los, capacity);
+                    his = Arrays.copyOf(his, capacity);
+                    depths = Arrays.copyOf(depths, capacity);
+                    firstChild = Arrays.copyOf(firstChild, capacity);
+                    childCount = Arrays.copyOf(childCount, capacity);
+                    outputOffsets = Arrays.copyOf(outputOffsets, capacity);
+                }
+                labels[nodeCount] = label;
+                los[nodeCount] = i;
+                his[nodeCount] = j;
+                depths[nodeCount] = depth + 1;
+                nodeCount++;
+                i = j;
+            }
+            childCount[node] = nodeCount - firstChild[node];
+        }
+
+        final int wordNum = map.words.size();
+        final int[] wordOffsets = new int[wordNum + 1];
+        final ByteArrayOutputStream wordBytes = new ByteArrayOutputStream();
+        final BytesRef scratch = new BytesRef();
+        for (int ord = 0; ord < wordNum; ord++) {
+            map.words.get(ord, scratch);
+            wordOffsets[ord] = wordBytes.size();
+            wordBytes.write(scratch.bytes, scratch.offset, scratch.length);
+        }
+        wordOffsets[wordNum] = wordBytes.size();
+
+        // unique, so that concurrent writers do not share a temp file
+        final File tempFile = File.createTempFile(file.getName(), ".tmp",
+                file.getAbsoluteFile().getParentFile());
+        boolean moved = false;
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(map.maxHorizontalContext);
+                out.writeInt(nodeCount);
+                out.writeInt(wordNum);
+                out.writeInt(outputBytes.size());
+                out.writeInt(wordBytes.size());
+                writeInts(out, labels, nodeCount);
+                writeInts(out, firstChild, nodeCount);
+                writeInts(out, childCount, nodeCount);
+                writeInts(out, outputOffsets, nodeCount);
+                writeInts(out, wordOffsets, wordOffsets.length);
+                outputBytes.writeTo(out);
+                wordBytes.writeTo(out);
+            }
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static void writeInts(final DataOutputStream out,
+            final int[] values, final int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    @Override
+    public Matcher newMatcher() {
+        return new MappedMatcher();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getMaxHorizontalContext() {
+        return maxHorizontalContext;
+    }
+
+    public int getNodeNum() {
+        return nodeNum;
+    }
+
+    public int getWordNum() {
+        return wordNum;
+    }
+
+    /**
+     * @return the child of node labeled codePoint, or -1 if it does not
+     * exist
+     */
+    int transition(final int node, final int codePoint) {
+        int low = buffer.getInt(firstChildPos + 4 * node);
+        int high = low + buffer.getInt(childCountPos + 4 * node) - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int label = buffer.getInt(labelsPos + 4 * mid);
+            if (label < codePoint) {
+                low = mid + 1;
+            } else if (label > codePoint) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private final class MappedMatcher extends Matcher {
+        // has its own position
+        private final ByteBuffer bytes = buffer.duplicate();
+
+        private final BytesRef output = new BytesRef(16);
+
+        private final BytesRef word = new BytesRef(16);
+
+        @Override
+        public int longestMatch(final char[] src, final int start,
+                final int end, final boolean ignoreCase) {
+            int node = ROOT;
+            int matchNode = -1;
+            int matchEnd = -1;
+            int index = start;
+            while (index < end) {
+                final int codePoint = Character.codePointAt(src, index, end);
+                node = transition(node,
+                        ignoreCase ? Character.toLowerCase(codePoint)
+                                : codePoint);
+                if (node < 0) {
+                    break;
+                }
+                index += Character.charCount(codePoint);
+                if (buffer.getInt(outputOffsetsPos + 4 * node) >= 0) {
+                    matchNode = node;
+                    matchEnd = index;
+                }
+            }
+
+            if (matchNode >= 0) {
+                final int pos = outputsPos
+                        + buffer.getInt(outputOffsetsPos + 4 * matchNode);
+                read(pos + 4, buffer.getInt(pos), output);
+            }
+            return matchEnd;
+        }
+
+        @Override
+        public BytesRef getOutput() {
+            return output;
+        }
+
+        @Override
+        public void getWord(final int ord, final BytesRef scratch) {
+            final int start = buffer.getInt(wordOffsetsPos + 4 * ord);
+            final int end = buffer.getInt(wordOffsetsPos + 4 * (ord + 1));
+            read(wordsPos + start, end - start, word);
+            scratch.bytes = word.bytes;
+            scratch.offset = 0;
+            scratch.length = word.length;
+        }
+
+        private void read(final int pos, final int length, final BytesRef ref) {
+            ref.bytes = ArrayUtil.grow(ref.bytes, length);
+            bytes.position(pos);
+            bytes.get(ref.bytes, 0, length);
+            ref.offset = 0;
+            ref.length = length;
+        }
+    }
+}
@@ -35,10 +35,8 @@ package jp.sf.fess.solr.plugin.analysis.synonym;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Arrays;
+import java.util.BitSet;
 
 import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.synonym.SynonymMap;
@@ -46,10 +44,12 @@ import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.InPlaceMergeSorter;
+import org.apache.lucene.util.RamUsageEstimator;
 import org.apache.lucene.util.UnicodeUtil;
-import org.apache.lucene.util.fst.FST;
 
 // https://issues.apache.org/jira/browse/LUCENE-5252
 public final class NGramSynonymTokenizer extends Tokenizer {
@@ -60,30 +60,35 @@ public final class NGramSynonymTokenizer extends Tokenizer {
 
     private final int n;
 
-    private final String delimiters;
+    /** delimiter chars, looked up in place of String#indexOf() */
+    private final BitSet delimiterSet;
 
     private final boolean expand;
 
     private final boolean ignoreCase;
 
-    private final SynonymMap map;
+    private final DictionaryProvider dictionaryProvider;
 
-    private FST.Arc<BytesRef> scratchArc;
+    private SynonymDictionary dictionary;
 
-    private FST<BytesRef> fst;
-
-    private FST.BytesReader fstReader;
+    private SynonymDictionary.Matcher matcher;
 
     private final BytesRef scratchBytes = new BytesRef();
 
     private final CharsRef scratchChars = new CharsRef();
 
-    private int longestMatchEndOffset;
+    /** a copy of the block to look up the dictionary */
+    private char[] blockChars = new char[INITIAL_TOKEN_SIZE];
+
+    /** the word of a synonym, lower-cased if ignoreCase */
+    private char[] synonymWord = new char[INITIAL_TOKEN_SIZE];
 
-    private int ch;
+    private boolean eof;
 
     static final int BUFFER_SIZE = 4096;
 
+    private static final int INITIAL_TOKEN_SIZE = 100;
+
     private final char[] readBuffer;
 
     private int readBufferIndex;
@@ -94,11 +99,9 @@ public final class NGramSynonymTokenizer extends Tokenizer {
 
     int blkStart, nextBlkStart, finalOffset;
 
-    final PriorityQueue<MyToken> queue;
+    final TokenBuffer tokens;
 
-    MyToken prevToken;
-
-    final List<MyToken> synonyms;
+    final SynonymBuffer synonyms;
 
     private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
 
@@ -109,37 +112,69 @@ public final class NGramSynonymTokenizer extends Tokenizer {
     protected NGramSynonymTokenizer(final Reader input, final int n,
             final String delimiters, final boolean expand,
             final boolean ignoreCase, final SynonymMap map) {
+        this(input, n, delimiters, expand, ignoreCase,
+                map != null ? SynonymDictionary.create(map) : null);
+    }
+
+    NGramSynonymTokenizer(final Reader input, final int n,
+            final String delimiters, final boolean expand,
+            final boolean ignoreCase, final SynonymDictionary dictionary) {
+        this(input, n, delimiters, expand, ignoreCase, BUFFER_SIZE,
+                dictionary);
+    }
+
+    NGramSynonymTokenizer(final Reader input, final int n,
+            final String delimiters, final boolean expand,
+            final boolean ignoreCase, final int bufferSize,
+            final SynonymDictionary dictionary) {
+        this(input, n, delimiters, expand, ignoreCase, bufferSize, null,
+                dictionary);
+    }
+
+    /**
+     * Creates a tokenizer which switches to the dictionary of provider on
+     * {@link #reset()}.
+     */
+    NGramSynonymTokenizer(final Reader input, final int n,
+            final String delimiters, final boolean expand,
+            final boolean ignoreCase, final int bufferSize,
+            final DictionaryProvider dictionaryProvider) {
+        this(input, n, delimiters, expand, ignoreCase, bufferSize,
+                dictionaryProvider, dictionaryProvider.getDictionary());
+    }
+
+    private NGramSynonymTokenizer(final Reader input, final int n,
+            final String delimiters, final boolean expand,
+            final boolean ignoreCase, final int bufferSize,
+            final DictionaryProvider dictionaryProvider,
+            final SynonymDictionary dictionary) {
         super(input);
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException(
+                    "bufferSize must be 1 or more: " + bufferSize);
+        }
         this.n = n;
-        this.delimiters = delimiters;
+        delimiterSet = createDelimiterSet(delimiters);
         this.expand = expand;
         this.ignoreCase = ignoreCase;
-        this.map = map;
-        if (map != null) {
-            fst = map.fst;
-            if (fst == null) {
-                throw new IllegalArgumentException("fst must be non-null");
-            }
-            fstReader = fst.getBytesReader();
-            scratchArc = new FST.Arc<BytesRef>();
-        }
+        this.dictionaryProvider = dictionaryProvider;
+        setDictionary(dictionary);
 
-        ch = 0;
-        readBuffer = new char[BUFFER_SIZE];
-        readBufferIndex = BUFFER_SIZE;
+        eof = false;
+        readBuffer = new char[bufferSize];
+        readBufferIndex = 0;
         readBufferLen = 0;
         block = new StringBuilder();
         nextBlkStart = 0;
-        queue = new PriorityQueue<NGramSynonymTokenizer.MyToken>(100,
-                new MyTokensComparator());
-        synonyms = new ArrayList<NGramSynonymTokenizer.MyToken>();
+        tokens = new TokenBuffer();
+        synonyms = new SynonymBuffer();
     }
 
     @Override
     public boolean incrementToken() throws IOException {
         while (true) {
-            final MyToken nextToken = getNextUniqueToken(queue, prevToken);
-            if (nextToken == null) {
+            final int token = tokens.nextUniqueToken();
+            if (token < 0) {
                 getNextBlock();
                 if (block.length() == 0) {
                     return false;
@@ -147,141 +182,142 @@ public final class NGramSynonymTokenizer extends Tokenizer {
                 consultDictionary();
                 tokenizeWholeBlock();
             } else {
-                prevToken = nextToken;
                 clearAttributes();
-                termAttr.append(nextToken.word);
-                finalOffset = correctOffset(blkStart + nextToken.endOffset);
+                tokens.copyWord(token, termAttr);
+                finalOffset = correctOffset(blkStart
+                        + tokens.endOffsets[token]);
                 offsetAttr.setOffset(correctOffset(blkStart
-                        + nextToken.startOffset), finalOffset);
-                posIncAttr.setPositionIncrement(nextToken.posInc);
+                        + tokens.startOffsets[token]), finalOffset);
+                posIncAttr.setPositionIncrement(tokens.posIncs[token]);
                 return true;
             }
         }
     }
 
-    static MyToken getNextUniqueToken(final PriorityQueue<MyToken> que,
-            final MyToken prev) {
-        while (true) {
-            final MyToken token = que.poll();
-            if (token == null) {
-                return null;
-            }
-            if (prev == null || !prev.identical(token)) {
-                return token;
-            }
-        }
-    }
-
     void consultDictionary() throws IOException {
-        if (map == null) {
+        synonyms.clear();
+        if (matcher == null) {
             return;
         }
-        synonyms.clear();
-        final char[] key = block.toString().toCharArray();
-        for (int start = 0; start < block.length();) {
-            final BytesRef matchOutput = getLongestMatchOutput(key, start);
-            if (matchOutput == null) {
+        final int length = block.length();
+        if (blockChars.length < length) {
+            blockChars = ArrayUtil.grow(blockChars, length);
+        }
+        block.getChars(0, length, blockChars, 0);
+        for (int start = 0; start < length;) {
+            final int matchEnd = matcher.longestMatch(blockChars, start,
+                    length, ignoreCase);
+            if (matchEnd < 0) {
                 start++;
                 continue;
             }
 
-            synonyms.add(new MyToken(key, start, longestMatchEndOffset, 1,
-                    matchOutput.clone(), ignoreCase));
-            start = longestMatchEndOffset;
+            synonyms.add(start, matchEnd, matcher.getOutput());
+            start = matchEnd;
         }
     }
 
-    BytesRef getLongestMatchOutput(final char[] src, final int start)
-            throws IOException {
-        BytesRef pendingOutput = fst.outputs.getNoOutput();
-        fst.getFirstArc(scratchArc);
-        assert scratchArc.output == fst.outputs.getNoOutput();
-        BytesRef matchOutput = null;
-
-        int index = 0;
-        while (start + index < src.length) {
-            final int codePoint = Character.codePointAt(src, start + index,
-                    src.length);
-            if (fst.findTargetArc(ignoreCase ? Character.toLowerCase(codePoint)
-                    : codePoint, scratchArc, scratchArc, fstReader) == null) {
-                return matchOutput;
-            }
-
-            pendingOutput = fst.outputs.add(pendingOutput, scratchArc.output);
-
-            if (scratchArc.isFinal()) {
-                matchOutput = fst.outputs.add(pendingOutput,
-                        scratchArc.nextFinalOutput);
-                longestMatchEndOffset = start + index
-                        + Character.charCount(codePoint);
-            }
-
-            index += Character.charCount(codePoint);
-        }
-
-        return matchOutput;
-    }
-
     void tokenizeWholeBlock() {
-        queue.clear();
+        tokens.clear();
         int nextStart = 0;
         final int end = block.length();
         boolean afterSynonymProduced = false;
-        final ByteArrayDataInput bytesReader = new ByteArrayDataInput();
-        for (int idx = 0; idx < synonyms.size(); idx++) {
-            final MyToken synonym = synonyms.get(idx);
-            tokenizePartialBlock(nextStart, synonym.startOffset,
-                    afterSynonymProduced);
+        final int synonymNum = synonyms.size;
+        for (int idx = 0; idx < synonymNum; idx++) {
+            final int startOffset = synonyms.startOffsets[idx];
+            final int endOffset = synonyms.endOffsets[idx];
+            tokenizePartialBlock(nextStart, startOffset, afterSynonymProduced);
 
             // enqueue prev-synonym
             if (expand) {
                 int limitOffset = 0;
                 if (idx > 0) {
-                    limitOffset = synonyms.get(idx - 1).endOffset;
+                    limitOffset = synonyms.endOffsets[idx - 1];
                 }
-                processPrevSynonym(synonym.startOffset, limitOffset);
+                processPrevSynonym(startOffset, limitOffset);
             }
 
             // enqueue synonyms
+            final int wordLength = copySynonymWord(startOffset, endOffset);
             if (expand) {
-                bytesReader.reset(synonym.output.bytes, synonym.output.offset,
-                        synonym.output.length);
-                final int code = bytesReader.readVInt();
-                // final boolean keepOrig = (code & 0x1) == 0; // not used
-                final int count = code >>> 1;
+                final int ordOffset = synonyms.ordOffsets[idx];
+                final int count = synonyms.ordCounts[idx];
                 for (int i = 0; i < count; i++) {
-                    map.words.get(bytesReader.readVInt(), scratchBytes);
+                    matcher.getWord(synonyms.ords[ordOffset + i], scratchBytes);
                     if (scratchChars.chars.length < scratchBytes.length) {
-                        scratchChars.chars = new char[scratchBytes.length];
+                        scratchChars.chars = ArrayUtil.grow(
+                                scratchChars.chars, scratchBytes.length);
                     }
                     scratchChars.length = UnicodeUtil.UTF8toUTF16(scratchBytes,
                             scratchChars.chars);
-                    final String word = scratchChars.toString();
                     int posInc = 0, seq = i + 1;
-                    if (synonym.word.equals(word)) {
+                    if (equals(synonymWord, wordLength, scratchChars)) {
                         posInc = 1;
                         seq = 0;
                     }
-                    queue.add(new MyToken(word, synonym.startOffset,
-                            synonym.endOffset, posInc, seq));
+                    tokens.add(scratchChars.chars, 0, scratchChars.length,
+                            startOffset, endOffset, posInc, seq);
                 }
             } else {
-                queue.add(synonym);
+                // zero for seq means that this token is the original
+                tokens.add(synonymWord, 0, wordLength, startOffset,
+                        endOffset, 1, 0);
             }
 
             // enqueue after-synonym
             if (expand) {
                 int limitOffset = block.length();
-                if (idx < synonyms.size() - 1) {
-                    limitOffset = synonyms.get(idx + 1).startOffset;
+                if (idx < synonymNum - 1) {
+                    limitOffset = synonyms.startOffsets[idx + 1];
                 }
-                afterSynonymProduced = processAfterSynonym(synonym.endOffset,
+                afterSynonymProduced = processAfterSynonym(endOffset,
                         limitOffset);
             }
 
-            nextStart = synonym.endOffset;
+            nextStart = endOffset;
         }
         tokenizePartialBlock(nextStart, end, afterSynonymProduced);
+        tokens.sort();
+    }
+
+    /**
+     * Copies blockChars[startOffset, endOffset) to synonymWord, lower-cased
+     * by code point as the dictionary is looked up if ignoreCase.
+     *
+     * @return the length of the word
+     */
+    private int copySynonymWord(final int startOffset, final int endOffset) {
+        final int length = endOffset - startOffset;
+        // a lower-cased code point may need one more char
+        if (synonymWord.length < length * 2) {
+            synonymWord = ArrayUtil.grow(synonymWord, length * 2);
+        }
+        if (!ignoreCase) {
+            System.arraycopy(blockChars, startOffset, synonymWord, 0, length);
+            return length;
+        }
+        int wordLength = 0;
+        for (int i = startOffset; i < endOffset;) {
+            final int codePoint = Character.codePointAt(blockChars, i,
+                    endOffset);
+            i += Character.charCount(codePoint);
+            wordLength += Character.toChars(Character.toLowerCase(codePoint),
+                    synonymWord, wordLength);
+        }
+        return wordLength;
+    }
+
+    private static boolean equals(final char[] word, final int length,
+            final CharsRef chars) {
+        if (length != chars.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (word[i] != chars.chars[chars.offset + i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     void tokenizePartialBlock(final int startOffset, final int endOffset,
@@ -292,13 +328,12 @@ public final class NGramSynonymTokenizer extends Tokenizer {
 
         int posInc = afterSynonymProduced ? 0 : 1;
         if (endOffset - startOffset < n) {
-            queue.add(new MyToken(block.substring(startOffset, endOffset),
-                    startOffset, endOffset, posInc));
+            tokens.add(startOffset, endOffset, posInc);
             return;
         }
 
         for (int i = startOffset; i + n <= endOffset; i++) {
-            queue.add(new MyToken(block.substring(i, i + n), i, i + n, posInc));
+            tokens.add(i, i + n, posInc);
             posInc = 1;
         }
     }
@@ -306,23 +341,21 @@ public final class NGramSynonymTokenizer extends Tokenizer {
     void processPrevSynonym(final int endOffset, final int limitOffset) {
         int startOffset = endOffset - 1;
         for (int len = 1; len < n && startOffset >= limitOffset; len++) {
-            queue.add(new MyToken(block.substring(startOffset, endOffset),
-                    startOffset, endOffset, 0));
+            tokens.add(startOffset, endOffset, 0);
             startOffset--;
         }
     }
 
     boolean processAfterSynonym(final int startOffset, final int limitOffset) {
-        final int qSize = queue.size();
+        final int qSize = tokens.size;
         int endOffset = startOffset + 1;
         int posInc = 1;
         for (int len = 1; len < n && endOffset <= limitOffset; len++) {
-            queue.add(new MyToken(block.substring(startOffset, endOffset),
-                    startOffset, endOffset, posInc));
+            tokens.add(startOffset, endOffset, posInc);
             endOffset++;
             posInc = 0;
         }
-        return queue.size() > qSize;
+        return tokens.size > qSize;
     }
 
     @Override
@@ -334,30 +367,56 @@ public final class NGramSynonymTokenizer extends Tokenizer {
     @Override
     public void reset() throws IOException {
         super.reset();
+        if (dictionaryProvider != null) {
+            setDictionary(dictionaryProvider.getDictionary());
+        }
         block.setLength(0);
-        readBufferIndex = BUFFER_SIZE;
+        tokens.clear();
+        readBufferIndex = 0;
         readBufferLen = 0;
-        ch = 0;
+        eof = false;
         blkStart = 0;
         nextBlkStart = 0;
     }
 
+    private void setDictionary(final SynonymDictionary dictionary) {
+        if (dictionary != this.dictionary) {
+            this.dictionary = dictionary;
+            matcher = dictionary != null ? dictionary.newMatcher() : null;
+        }
+    }
+
     boolean getNextBlock() throws IOException {
         blkStart = nextBlkStart;
         block.setLength(0);
-        prevToken = null;
-        while (true) {
-            if (ch != -1) {
-                ch = readCharFromBuffer();
+        tokens.clear();
+        while (readBufferIndex < readBufferLen || fillReadBuffer()) {
+            int index = readBufferIndex;
+            if (block.length() == 0) {
+                // skips delimiters before the block
+                while (index < readBufferLen
+                        && isDelimiter(readBuffer[index])) {
+                    index++;
+                }
+                blkStart += index - readBufferIndex;
+                nextBlkStart += index - readBufferIndex;
+                readBufferIndex = index;
+                if (index == readBufferLen) {
+                    continue;
+                }
             }
-            if (ch == -1) {
-                break;
-            } else if (!isDelimiter(ch)) {
-                block.append((char) ch);
-            } else if (block.length() > 0) {
+
+            while (index < readBufferLen && !isDelimiter(readBuffer[index])) {
+                index++;
+            }
+            block.append(readBuffer, readBufferIndex, index - readBufferIndex);
+            nextBlkStart += index - readBufferIndex;
+            readBufferIndex = index;
+            if (index < readBufferLen) {
+                // consumes the delimiter after the block
+                readBufferIndex++;
+                nextBlkStart++;
                 break;
-            } else {
-                blkStart++;
             }
         }
         if (block.length() == 0) {
@@ -366,106 +425,300 @@ public final class NGramSynonymTokenizer extends Tokenizer {
         return true;
     }
 
-    int readCharFromBuffer() throws IOException {
-        if (readBufferIndex >= readBufferLen) {
-            readBufferLen = input.read(readBuffer);
-            if (readBufferLen == -1) {
-                return -1;
-            }
+    private boolean fillReadBuffer() throws IOException {
+        if (eof) {
+            return false;
+        }
+        final int len = input.read(readBuffer);
+        if (len == -1) {
+            eof = true;
             readBufferIndex = 0;
+            readBufferLen = 0;
+            return false;
         }
-        final int c = readBuffer[readBufferIndex++];
-        nextBlkStart++;
-        return c;
+        readBufferIndex = 0;
+        readBufferLen = len;
+        return true;
     }
 
-    boolean isDelimiter(final int c) {
-        return delimiters.indexOf(c) >= 0;
+    boolean isDelimiter(final char c) {
+        return delimiterSet.get(c);
     }
 
-    static class MyToken {
-        final String word;
+    private static BitSet createDelimiterSet(final String delimiters) {
+        int max = 0;
+        for (int i = 0; i < delimiters.length(); i++) {
+            max = Math.max(max, delimiters.charAt(i));
+        }
+        final BitSet delimiterSet = new BitSet(max + 1);
+        for (int i = 0; i < delimiters.length(); i++) {
+            delimiterSet.set(delimiters.charAt(i));
+        }
+        return delimiterSet;
+    }
 
-        final int startOffset, endOffset, posInc, seq;
+    /**
+     * Provides the current dictionary, which may be replaced while
+     * tokenizers are in use.
+     */
+    interface DictionaryProvider {
+        SynonymDictionary getDictionary();
+    }
 
-        final BytesRef output;
+    /**
+     * Synonyms found in a block, as offsets in the block and the ords of
+     * their words decoded from the outputs of the dictionary.
+     */
+    static final class SynonymBuffer {
+        int size;
 
-        public MyToken(final char[] key, final int startOffset,
-                final int endOffset, final int posInc, final BytesRef output,
-                final boolean ignoreCase) {
-            word = ignoreCase ? new String(key, startOffset, endOffset
-                    - startOffset).toLowerCase() : new String(key, startOffset,
-                    endOffset - startOffset);
-            this.startOffset = startOffset;
-            this.endOffset = endOffset;
-            this.posInc = posInc;
-            this.output = output;
-            seq = 0; // zero for seq means that this token is the original of synonyms
+        int[] startOffsets = new int[INITIAL_TOKEN_SIZE];
+
+        int[] endOffsets = new int[INITIAL_TOKEN_SIZE];
+
+        /** offset of the word ords of each synonym in ords */
+        int[] ordOffsets = new int[INITIAL_TOKEN_SIZE];
+
+        int[] ordCounts = new int[INITIAL_TOKEN_SIZE];
+
+        int[] ords = new int[INITIAL_TOKEN_SIZE];
+
+        int ordsLength;
+
+        private final ByteArrayDataInput bytesReader = new ByteArrayDataInput();
+
+        void clear() {
+            size = 0;
+            ordsLength = 0;
+        }
+
+        void add(final int startOffset, final int endOffset,
+                final BytesRef output) {
+            if (size == startOffsets.length) {
+                final int newSize = ArrayUtil.oversize(size + 1,
+                        RamUsageEstimator.NUM_BYTES_INT);
+                startOffsets = Arrays.copyOf(startOffsets, newSize);
+                endOffsets = Arrays.copyOf(endOffsets, newSize);
+                ordOffsets = Arrays.copyOf(ordOffsets, newSize);
+                ordCounts = Arrays.copyOf(ordCounts, newSize);
+            }
+
+            bytesReader.reset(output.bytes, output.offset, output.length);
+            final int code = bytesReader.readVInt();
+            // final boolean keepOrig = (code & 0x1) == 0; // not used
+            final int count = code >>> 1;
+            if (ords.length < ordsLength + count) {
+                ords = ArrayUtil.grow(ords, ordsLength + count);
+            }
+            for (int i = 0; i < count; i++) {
+                ords[ordsLength + i] = bytesReader.readVInt();
+            }
+
+            startOffsets[size] = startOffset;
+            endOffsets[size] = endOffset;
+            ordOffsets[size] = ordsLength;
+            ordCounts[size] = count;
+            ordsLength += count;
+            size++;
+        }
+    }
+
+    /**
+     * Tokens of a block in parallel primitive arrays. The word of an n-gram
+     * is not copied but read from the block, and the words of synonyms are
+     * kept in a shared char array.
+     * <p>
+     * {@link #sort()} orders tokens by start offset, then end offset, then
+     * position increment in descending order, so that a token which moves
+     * the position comes before the tokens stacked on it, and then seq, the
+     * order of synonyms in a rule (0 for the original word and
+     * Integer.MAX_VALUE for n-grams). The sort
+     * is stable, so tokens equal in all of them stay in the order they were
+     * added.
+     * </p>
+     * <p>
+     * {@link #nextUniqueToken()} skips a token whose position increment is
+     * 0 and whose word and offsets are the same as the previous token's,
+     * such as a synonym equal to the n-gram at the same offsets.
+     * </p>
+     */
+    final class TokenBuffer {
+        int size;
+
+        int[] startOffsets = new int[INITIAL_TOKEN_SIZE];
+
+        int[] endOffsets = new int[INITIAL_TOKEN_SIZE];
+
+        int[] posIncs = new int[INITIAL_TOKEN_SIZE];
+
+        int[] seqs = new int[INITIAL_TOKEN_SIZE];
+
+        /** offset of the word in wordChars, or -1 for the block */
+        int[] wordOffsets = new int[INITIAL_TOKEN_SIZE];
+
+        int[] wordLengths = new int[INITIAL_TOKEN_SIZE];
+
+        char[] wordChars = new char[INITIAL_TOKEN_SIZE];
+
+        int wordCharsLength;
+
+        /** token ids in the output order */
+        int[] order = new int[INITIAL_TOKEN_SIZE];
+
+        int pos;
+
+        int prev = -1;
+
+        private final InPlaceMergeSorter sorter = new InPlaceMergeSorter() {
+            @Override
+            protected int compare(final int i, final int j) {
+                return compareTokens(order[i], order[j]);
+            }
+
+            @Override
+            protected void swap(final int i, final int j) {
+                final int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+        };
+
+        void clear() {
+            size = 0;
+            wordCharsLength = 0;
+            pos = 0;
+            prev = -1;
         }
 
-        public MyToken(final String word, final int startOffset,
-                final int endOffset, final int posInc) {
-            this(word, startOffset, endOffset, posInc, Integer.MAX_VALUE); // Integer.MAX_VALUE for seq means unused
+        /**
+         * Adds an n-gram whose word is block[startOffset, endOffset).
+         */
+        void add(final int startOffset, final int endOffset, final int posInc) {
+            add(startOffset, endOffset, posInc, Integer.MAX_VALUE, -1,
+                    endOffset - startOffset);
         }
 
-        public MyToken(final String word, final int startOffset,
+        void add(final String word, final int startOffset,
                 final int endOffset, final int posInc, final int seq) {
-            this.word = word;
-            this.startOffset = startOffset;
-            this.endOffset = endOffset;
-            this.posInc = posInc;
-            output = null; // means unused
-            this.seq = seq;
+            final int length = word.length();
+            final int wordOffset = reserveWordChars(length);
+            word.getChars(0, length, wordChars, wordOffset);
+            add(startOffset, endOffset, posInc, seq, wordOffset, length);
         }
 
-        public boolean identical(final MyToken o) {
-            if (o.posInc != 0) {
-                return false;
-            }
-            if (!word.equals(o.word)) {
-                return false;
+        void add(final char[] word, final int offset, final int length,
+                final int startOffset, final int endOffset, final int posInc,
+                final int seq) {
+            final int wordOffset = reserveWordChars(length);
+            System.arraycopy(word, offset, wordChars, wordOffset, length);
+            add(startOffset, endOffset, posInc, seq, wordOffset, length);
+        }
+
+        private int reserveWordChars(final int length) {
+            final int wordOffset = wordCharsLength;
+            wordCharsLength += length;
+            if (wordCharsLength > wordChars.length) {
+                wordChars = ArrayUtil.grow(wordChars, wordCharsLength);
             }
-            if (startOffset != o.startOffset) {
-                return false;
+            return wordOffset;
+        }
+
+        private void add(final int startOffset, final int endOffset,
+                final int posInc, final int seq, final int wordOffset,
+                final int wordLength) {
+            if (size == order.length) {
+                final int newSize = ArrayUtil.oversize(size + 1,
+                        RamUsageEstimator.NUM_BYTES_INT);
+                startOffsets = Arrays.copyOf(startOffsets, newSize);
+                endOffsets = Arrays.copyOf(endOffsets, newSize);
+                posIncs = Arrays.copyOf(posIncs, newSize);
+                seqs = Arrays.copyOf(seqs, newSize);
+                wordOffsets = Arrays.copyOf(wordOffsets, newSize);
+                wordLengths = Arrays.copyOf(wordLengths, newSize);
+                order = Arrays.copyOf(order, newSize);
             }
-            if (endOffset != o.endOffset) {
-                return false;
+            startOffsets[size] = startOffset;
+            endOffsets[size] = endOffset;
+            posIncs[size] = posInc;
+            seqs[size] = seq;
+            wordOffsets[size] = wordOffset;
+            wordLengths[size] = wordLength;
+            order[size] = size;
+            size++;
+        }
+
+        void sort() {
+            sorter.sort(0, size);
+            pos = 0;
+            prev = -1;
+        }
+
+        /**
+         * @return the next token which is not identical to the previous
+         * one, or -1
+         */
+        int nextUniqueToken() {
+            while (pos < size) {
+                final int token = order[pos++];
+                if (prev < 0 || !identical(prev, token)) {
+                    prev = token;
+                    return token;
+                }
             }
-            return true;
+            return -1;
         }
 
-        @Override
-        public String toString() {
-            final StringBuilder sb = new StringBuilder();
-            sb.append(word).append(',').append(startOffset).append(',')
-                    .append(endOffset).append(',').append(posInc);
-            return sb.toString();
+        void copyWord(final int token, final CharTermAttribute termAttr) {
+            final int wordOffset = wordOffsets[token];
+            if (wordOffset < 0) {
+                termAttr.append(block, startOffsets[token], endOffsets[token]);
+            } else {
+                termAttr.copyBuffer(wordChars, wordOffset, wordLengths[token]);
+            }
         }
 
-        @Override
-        public boolean equals(final Object other) {
-            if (other == null || !(other instanceof MyToken)) {
-                return false;
+        private int compareTokens(final int t1, final int t2) {
+            if (startOffsets[t1] != startOffsets[t2]) {
+                return startOffsets[t1] < startOffsets[t2] ? -1 : 1;
             }
-            final MyToken o = (MyToken) other;
-            if (!word.equals(o.word)) {
-                return false;
+            if (endOffsets[t1] != endOffsets[t2]) {
+                return endOffsets[t1] < endOffsets[t2] ? -1 : 1;
             }
-            if (startOffset != o.startOffset) {
-                return false;
+            if (posIncs[t1] != posIncs[t2]) {
+                return posIncs[t1] > posIncs[t2] ? -1 : 1;
+            }
+            if (seqs[t1] != seqs[t2]) {
+                return seqs[t1] < seqs[t2] ? -1 : 1;
             }
-            if (endOffset != o.endOffset) {
+            return 0;
+        }
+
+        /**
+         * @return true if t2 is stacked on t1 with the same word and offsets
+         */
+        private boolean identical(final int t1, final int t2) {
+            if (posIncs[t2] != 0 || startOffsets[t1] != startOffsets[t2]
+                    || endOffsets[t1] != endOffsets[t2]) {
                 return false;
             }
-            if (posInc != o.posInc) {
+            final int length = wordLengths[t1];
+            if (length != wordLengths[t2]) {
                 return false;
             }
+            for (int i = 0; i < length; i++) {
+                if (charAt(t1, i) != charAt(t2, i)) {
+                    return false;
+                }
+            }
             return true;
         }
 
-        @Override
-        public int hashCode() {
-            return word.hashCode() + posInc << 30 + startOffset << 15 + endOffset;
+        private char charAt(final int token, final int index) {
+            final int wordOffset = wordOffsets[token];
+            if (wordOffset < 0) {
+                return block.charAt(startOffsets[token] + index);
+            }
+            return wordChars[wordOffset + index];
         }
     }
 
@@ -488,35 +741,4 @@ public final class NGramSynonymTokenizer extends Tokenizer {
         }
       }
       */
-
-    static class MyTokensComparator implements Comparator<MyToken> {
-        @Override
-        public int compare(final MyToken t1, final MyToken t2) {
-            if (t1.startOffset < t2.startOffset) {
-                return -1;
-            } else if (t1.startOffset > t2.startOffset) {
-                return 1;
-            }
-
-            if (t1.endOffset < t2.endOffset) {
-                return -1;
-            } else if (t1.endOffset > t2.endOffset) {
-                return 1;
-            }
-
-            if (t1.posInc > t2.posInc) {
-                return -1;
-            } else if (t1.posInc < t2.posInc) {
-                return 1;
-            }
-
-            if (t1.seq < t2.seq) {
-                return -1;
-            } else if (t1.seq > t2.seq) {
-                return 1;
-            }
-
-            return -1;
-        }
-    }
 }
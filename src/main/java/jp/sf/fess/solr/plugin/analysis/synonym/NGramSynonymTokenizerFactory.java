@@ -33,16 +33,25 @@ package jp.sf.fess.solr.plugin.analysis.synonym;
  * limitations under the License.
  */
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+
+import jp.sf.fess.solr.plugin.analysis.monitor.MonitoringTask;
+import jp.sf.fess.solr.plugin.util.MonitoringUtil;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
@@ -56,6 +65,10 @@ import org.apache.lucene.analysis.util.ResourceLoader;
 import org.apache.lucene.analysis.util.ResourceLoaderAware;
 import org.apache.lucene.analysis.util.TokenizerFactory;
 import org.apache.lucene.util.AttributeFactory;
+import org.apache.solr.cloud.ZkSolrResourceLoader;
+import org.apache.solr.core.SolrResourceLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Factory for {@link NGramSynonymTokenizer}.
@@ -70,10 +83,35 @@ import org.apache.lucene.util.AttributeFactory;
  *                expand="false" synonyms="synonyms.txt"/&gt;
  *   &lt;/analyzer&gt;
  * &lt;/fieldType&gt;</pre>
+ * <p>
+ * SynonymMap is shared by factories which load the same synonyms through
+ * {@link SynonymMapCache}. With persistFst="true", the map is also written
+ * next to the synonym file and read from it by later loads. Files written
+ * for older contents of the synonym file are deleted then.
+ * </p>
+ * <p>
+ * With offHeap="true", synonyms are compiled into a
+ * {@link MappedSynonymDictionary} file next to the synonym file, or in the
+ * temporary directory if the synonym file is not on the local file system,
+ * and looked up through a memory mapping instead of a SynonymMap on the
+ * heap.
+ * </p>
+ * <p>
+ * With monitoringPeriod (ms), the synonym files are checked for updates at
+ * most once per the period when a tokenizer is reset, and a new dictionary
+ * is built on a background thread. Tokenizers switch to it on their next
+ * reset, so the core does not need to be reloaded.
+ * </p>
+ * <p>
+ * bufferSize is the number of chars read from the input at once (4096 by
+ * default). A larger buffer reduces reads for large field values.
+ * </p>
  */
 // https://issues.apache.org/jira/browse/LUCENE-5252
 public final class NGramSynonymTokenizerFactory extends TokenizerFactory
         implements ResourceLoaderAware {
+    private static final Logger logger = LoggerFactory
+            .getLogger(NGramSynonymTokenizerFactory.class);
 
     private final String synonymFiles;
 
@@ -87,7 +125,27 @@ public final class NGramSynonymTokenizerFactory extends TokenizerFactory
 
     private final boolean expand;
 
-    private SynonymMap map;
+    private final boolean persistFst;
+
+    private final boolean offHeap;
+
+    private final long monitoringPeriod;
+
+    private final int bufferSize;
+
+    private volatile SynonymDictionary dictionary;
+
+    private MonitoringTask monitoringTask;
+
+    private final Object reloadLock = new Object();
+
+    private final NGramSynonymTokenizer.DictionaryProvider dictionaryProvider = new NGramSynonymTokenizer.DictionaryProvider() {
+        @Override
+        public SynonymDictionary getDictionary() {
+            monitoringTask.process();
+            return dictionary;
+        }
+    };
 
     public NGramSynonymTokenizerFactory(final Map<String, String> args) {
         super(args);
@@ -98,6 +156,15 @@ public final class NGramSynonymTokenizerFactory extends TokenizerFactory
                 NGramSynonymTokenizer.DEFAULT_DELIMITERS);
         format = get(args, "format");
         expand = getBoolean(args, "expand", true);
+        persistFst = getBoolean(args, "persistFst", false);
+        offHeap = getBoolean(args, "offHeap", false);
+        monitoringPeriod = getInt(args, "monitoringPeriod", 0);
+        bufferSize = getInt(args, "bufferSize",
+                NGramSynonymTokenizer.BUFFER_SIZE);
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException(
+                    "bufferSize must be 1 or more: " + bufferSize);
+        }
         if (!args.isEmpty()) {
             throw new IllegalArgumentException("Unknown parameters: " + args);
         }
@@ -105,32 +172,211 @@ public final class NGramSynonymTokenizerFactory extends TokenizerFactory
 
     @Override
     public Tokenizer create(final AttributeFactory factory, final Reader input) {
+        if (monitoringTask != null) {
+            return new NGramSynonymTokenizer(input, n, delimiters, expand,
+                    ignoreCase, bufferSize, dictionaryProvider);
+        }
         return new NGramSynonymTokenizer(input, n, delimiters, expand,
-                ignoreCase, map);
+                ignoreCase, bufferSize, dictionary);
     }
 
     @Override
     public void inform(final ResourceLoader loader) throws IOException {
         if (synonymFiles == null) {
-            map = null;
+            dictionary = null;
             return;
         }
 
-        final Analyzer analyzer = getAnalyzer(ignoreCase);
+        if (monitoringPeriod > 0) {
+            // created first not to miss updates while loading
+            monitoringTask = createMonitoringTask(loader);
+        }
+        dictionary = loadDictionary(loader);
+    }
 
-        try {
-            String formatClass = format;
-            if (format == null || format.equals("solr")) {
-                formatClass = SolrSynonymParser.class.getName();
-            } else if (format.equals("wordnet")) {
-                formatClass = WordnetSynonymParser.class.getName();
+    private MonitoringTask createMonitoringTask(final ResourceLoader loader)
+            throws IOException {
+        final List<MonitoringTask.Target> targets = new ArrayList<MonitoringTask.Target>();
+        for (final String file : getSynonymFileNames()) {
+            targets.add(MonitoringUtil.createMonitoringTarget(loader, file));
+        }
+        return new MonitoringTask(new MonitoringTask.Target() {
+            @Override
+            public long lastModified() {
+                long lastModified = 0;
+                for (final MonitoringTask.Target target : targets) {
+                    lastModified = Math.max(lastModified,
+                            target.lastModified());
+                }
+                return lastModified;
+            }
+        }, monitoringPeriod, new MonitoringTask.Callback() {
+            @Override
+            public void process() {
+                reload(loader);
+            }
+        });
+    }
+
+    void reload(final ResourceLoader loader) {
+        synchronized (reloadLock) {
+            try {
+                dictionary = loadDictionary(loader);
+                logger.info("Reloaded " + synonymFiles);
+            } catch (final Exception e) {
+                logger.warn("Failed to reload " + synonymFiles, e);
+            }
+        }
+    }
+
+    private SynonymDictionary loadDictionary(final ResourceLoader loader)
+            throws IOException {
+        final String formatClass;
+        if (format == null || format.equals("solr")) {
+            formatClass = SolrSynonymParser.class.getName();
+        } else if (format.equals("wordnet")) {
+            formatClass = WordnetSynonymParser.class.getName();
+        } else {
+            formatClass = format;
+        }
+
+        final List<String> files = getSynonymFileNames();
+        final List<byte[]> contents = new ArrayList<byte[]>(files.size());
+        for (final String file : files) {
+            contents.add(readResource(loader, file));
+        }
+        final String key = SynonymMapCache.createKey(contents, formatClass,
+                ignoreCase);
+        final File fstFile = persistFst ? getPersistentFile(loader,
+                files.get(0), key, SynonymMapCache.FST_SUFFIX) : null;
+
+        final Callable<SynonymMap> mapBuilder = new Callable<SynonymMap>() {
+            @Override
+            public SynonymMap call() throws IOException {
+                if (fstFile != null && fstFile.exists()) {
+                    try {
+                        return SynonymMapCache.read(fstFile);
+                    } catch (final IOException e) {
+                        logger.warn("Failed to read " + fstFile, e);
+                    }
+                }
+
+                final SynonymMap synonymMap;
+                try {
+                    // TODO: expose dedup as a parameter?
+                    synonymMap = loadSynonyms(loader, formatClass, true,
+                            getAnalyzer(ignoreCase), true, contents); // always expand=true in NGramSynonymTokenizer
+                } catch (final ParseException e) {
+                    throw new IOException("Error parsing synonyms file:", e);
+                }
+
+                if (fstFile != null) {
+                    try {
+                        SynonymMapCache.write(synonymMap, fstFile);
+                        SynonymMapCache.deleteStaleFiles(fstFile,
+                                SynonymMapCache.FST_SUFFIX);
+                    } catch (final IOException e) {
+                        logger.warn("Failed to write " + fstFile, e);
+                    }
+                }
+                return synonymMap;
             }
-            // TODO: expose dedup as a parameter?
-            map = loadSynonyms(loader, formatClass, true, analyzer, true,
-                    synonymFiles); // always expand=true in NGramSynonymTokenizer
-        } catch (final ParseException e) {
-            throw new IOException("Error parsing synonyms file:", e);
+        };
+
+        if (!offHeap) {
+            return SynonymDictionary.create(SynonymMapCache.get(key,
+                    mapBuilder));
+        }
+
+        File file = getPersistentFile(loader, files.get(0), key,
+                MappedSynonymDictionary.SUFFIX);
+        // files in the temporary directory may be used by other instances
+        final boolean deleteStaleFiles = file != null;
+        if (file == null) {
+            file = new File(System.getProperty("java.io.tmpdir"),
+                    SynonymMapCache.getFileName(
+                            new File(files.get(0)).getName(), key,
+                            MappedSynonymDictionary.SUFFIX));
         }
+        final File dictionaryFile = file;
+        return SynonymMapCache.get(key + ":offHeap",
+                new Callable<SynonymDictionary>() {
+                    @Override
+                    public SynonymDictionary call() throws Exception {
+                        if (dictionaryFile.exists()) {
+                            try {
+                                return MappedSynonymDictionary
+                                        .open(dictionaryFile);
+                            } catch (final IOException e) {
+                                logger.warn("Failed to read "
+                                        + dictionaryFile, e);
+                            }
+                        }
+
+                        // the map is not cached, and is collected after
+                        // it is compiled
+                        final SynonymMap synonymMap = mapBuilder.call();
+                        try {
+                            MappedSynonymDictionary.write(synonymMap,
+                                    dictionaryFile);
+                            if (deleteStaleFiles) {
+                                SynonymMapCache.deleteStaleFiles(
+                                        dictionaryFile,
+                                        MappedSynonymDictionary.SUFFIX);
+                            }
+                            return MappedSynonymDictionary
+                                    .open(dictionaryFile);
+                        } catch (final IOException e) {
+                            logger.warn("Failed to map " + dictionaryFile
+                                    + ". Synonyms are kept on the heap.", e);
+                            return SynonymDictionary.create(synonymMap);
+                        }
+                    }
+                });
+    }
+
+    private List<String> getSynonymFileNames() {
+        final File synonymFile = new File(synonymFiles);
+        if (synonymFile.exists()) {
+            return Collections.singletonList(synonymFiles);
+        }
+        return splitFileNames(synonymFiles);
+    }
+
+    private static byte[] readResource(final ResourceLoader loader,
+            final String name) throws IOException {
+        try (InputStream in = loader.openResource(name)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * @return the file next to the synonym file to persist what is built
+     * from it, or null if the synonym file is not on the local file system
+     */
+    private static File getPersistentFile(final ResourceLoader loader,
+            final String name, final String key, final String suffix) {
+        File synonymFile = new File(name);
+        if (!synonymFile.exists()) {
+            if (!(loader instanceof SolrResourceLoader)
+                    || loader instanceof ZkSolrResourceLoader) {
+                return null;
+            }
+            synonymFile = new File(
+                    ((SolrResourceLoader) loader).getConfigDir(), name);
+            if (!synonymFile.exists()) {
+                return null;
+            }
+        }
+        final File dir = synonymFile.getAbsoluteFile().getParentFile();
+        return new File(dir, SynonymMapCache.getFileName(
+                synonymFile.getName(), key, suffix));
     }
 
     public static Analyzer getAnalyzer(final boolean ignoreCase) {
@@ -149,8 +395,8 @@ public final class NGramSynonymTokenizerFactory extends TokenizerFactory
 
     private SynonymMap loadSynonyms(final ResourceLoader loader,
             final String cname, final boolean dedup, final Analyzer analyzer,
-            final boolean expand, final String synonyms) throws IOException,
-            ParseException {
+            final boolean expand, final List<byte[]> contents)
+            throws IOException, ParseException {
         final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
                 .onMalformedInput(CodingErrorAction.REPORT)
                 .onUnmappableCharacter(CodingErrorAction.REPORT);
@@ -165,18 +411,10 @@ public final class NGramSynonymTokenizerFactory extends TokenizerFactory
             throw new RuntimeException(e);
         }
 
-        final File synonymFile = new File(synonyms);
-        if (synonymFile.exists()) {
+        for (final byte[] content : contents) {
             decoder.reset();
-            parser.parse(new InputStreamReader(loader.openResource(synonyms),
-                    decoder));
-        } else {
-            final List<String> files = splitFileNames(synonyms);
-            for (final String file : files) {
-                decoder.reset();
-                parser.parse(new InputStreamReader(loader.openResource(file),
-                        decoder));
-            }
+            parser.parse(new InputStreamReader(new ByteArrayInputStream(
+                    content), decoder));
         }
         return parser.build();
     }
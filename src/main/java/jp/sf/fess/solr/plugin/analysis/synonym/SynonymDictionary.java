@@ -0,0 +1,158 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.analysis.synonym;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.fst.FST;
+
+/**
+ * Synonyms looked up by NGramSynonymTokenizer. The outputs of matches are
+ * encoded as SynonymMap does, and refer to words by ord. A dictionary is
+ * shared, and each tokenizer uses its own {@link Matcher}.
+ */
+public abstract class SynonymDictionary {
+
+    /**
+     * @return a dictionary which looks up the FST of map on the heap
+     */
+    public static SynonymDictionary create(final SynonymMap map) {
+        return new FSTSynonymDictionary(map);
+    }
+
+    /**
+     * @return a matcher which is not thread-safe
+     */
+    public abstract Matcher newMatcher();
+
+    public abstract static class Matcher {
+        /**
+         * Finds the longest synonym starting at src[start].
+         *
+         * @return the end offset of the match in src, or -1 if not found
+         */
+        public abstract int longestMatch(char[] src, int start, int end,
+                boolean ignoreCase) throws IOException;
+
+        /**
+         * @return the output of the last match, which is valid until the
+         * next call of this matcher
+         */
+        public abstract BytesRef getOutput();
+
+        /**
+         * Sets the word of ord to scratch, which is valid until the next
+         * call of this matcher.
+         */
+        public abstract void getWord(int ord, BytesRef scratch);
+    }
+
+    static class FSTSynonymDictionary extends SynonymDictionary {
+        private final SynonymMap map;
+
+        FSTSynonymDictionary(final SynonymMap map) {
+            if (map.fst == null) {
+                throw new IllegalArgumentException("fst must be non-null");
+            }
+            this.map = map;
+        }
+
+        @Override
+        public Matcher newMatcher() {
+            return new Matcher() {
+                private final FST<BytesRef> fst = map.fst;
+
+                private final FST.BytesReader fstReader = fst
+                        .getBytesReader();
+
+                private final FST.Arc<BytesRef> scratchArc = new FST.Arc<BytesRef>();
+
+                /** the outputs of arcs to the current position */
+                private byte[] pending = new byte[16];
+
+                private int pendingLength;
+
+                private final BytesRef output = new BytesRef(16);
+
+                @Override
+                public int longestMatch(final char[] src, final int start,
+                        final int end, final boolean ignoreCase)
+                        throws IOException {
+                    fst.getFirstArc(scratchArc);
+                    assert scratchArc.output == fst.outputs.getNoOutput();
+                    pendingLength = 0;
+                    int matchEnd = -1;
+
+                    int index = start;
+                    while (index < end) {
+                        final int codePoint = Character.codePointAt(src,
+                                index, end);
+                        if (fst.findTargetArc(
+                                ignoreCase ? Character.toLowerCase(codePoint)
+                                        : codePoint, scratchArc, scratchArc,
+                                fstReader) == null) {
+                            break;
+                        }
+
+                        // concatenates outputs as ByteSequenceOutputs.add()
+                        // does, without allocating them
+                        final BytesRef arcOutput = scratchArc.output;
+                        if (arcOutput.length > 0) {
+                            pending = ArrayUtil.grow(pending, pendingLength
+                                    + arcOutput.length);
+                            System.arraycopy(arcOutput.bytes,
+                                    arcOutput.offset, pending, pendingLength,
+                                    arcOutput.length);
+                            pendingLength += arcOutput.length;
+                        }
+                        index += Character.charCount(codePoint);
+
+                        if (scratchArc.isFinal()) {
+                            final BytesRef finalOutput = scratchArc.nextFinalOutput;
+                            final int length = pendingLength
+                                    + finalOutput.length;
+                            output.bytes = ArrayUtil.grow(output.bytes,
+                                    length);
+                            System.arraycopy(pending, 0, output.bytes, 0,
+                                    pendingLength);
+                            System.arraycopy(finalOutput.bytes,
+                                    finalOutput.offset, output.bytes,
+                                    pendingLength, finalOutput.length);
+                            output.offset = 0;
+                            output.length = length;
+                            matchEnd = index;
+                        }
+                    }
+                    return matchEnd;
+                }
+
+                @Override
+                public BytesRef getOutput() {
+                    return output;
+                }
+
+                @Override
+                public void getWord(final int ord, final BytesRef scratch) {
+                    map.words.get(ord, scratch);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.analysis.synonym;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide cache of SynonymMap, keyed by the content of synonym files
+ * and how they are parsed, so that factories of all cores share one map
+ * for the same files. A map is held while any factory or tokenizer refers
+ * to it, and built again after it is garbage collected. Other objects built
+ * from synonym files, such as {@link MappedSynonymDictionary}, are cached in
+ * the same way under their own keys.
+ * <p>
+ * A map can also be written to a file and read from it instead of parsing
+ * the synonym files.
+ * </p>
+ */
+public final class SynonymMapCache {
+    private static final Logger logger = LoggerFactory
+            .getLogger(SynonymMapCache.class);
+
+    private static final String CODEC_NAME = "NGramSynonymMap";
+
+    private static final int VERSION = 0;
+
+    public static final String FST_SUFFIX = ".fst";
+
+    private static final int HASH_LENGTH = 16;
+
+    private static final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private SynonymMapCache() {
+    }
+
+    /**
+     * @param contents the bytes of each synonym file
+     * @return the key for the contents parsed by format with ignoreCase
+     */
+    public static String createKey(final List<byte[]> contents,
+            final String format, final boolean ignoreCase) {
+        final MessageDigest digest = createDigest();
+        for (final byte[] content : contents) {
+            digest.update(content);
+            // separates files
+            digest.update((byte) 0);
+        }
+        return toHex(digest.digest()) + ':' + format + ':' + ignoreCase;
+    }
+
+    /**
+     * @return the name of the file to persist the map of key
+     */
+    public static String getFileName(final String baseName, final String key) {
+        return getFileName(baseName, key, FST_SUFFIX);
+    }
+
+    public static String getFileName(final String baseName,
+            final String key, final String suffix) {
+        final MessageDigest digest = createDigest();
+        digest.update(key.getBytes(Charset.forName("UTF-8")));
+        return baseName + '.'
+                + toHex(digest.digest()).substring(0, HASH_LENGTH) + suffix;
+    }
+
+    /**
+     * Deletes files named by {@link #getFileName(String, String, String)}
+     * for other keys with the same base name and suffix as file, which are
+     * left behind when synonym files are updated.
+     */
+    public static void deleteStaleFiles(final File file, final String suffix) {
+        final String name = file.getName();
+        final int prefixLength = name.length() - HASH_LENGTH - suffix.length();
+        if (prefixLength <= 1 || !name.endsWith(suffix)) {
+            return;
+        }
+        final String prefix = name.substring(0, prefixLength);
+        final File[] files = file.getAbsoluteFile().getParentFile()
+                .listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File f : files) {
+            final String fileName = f.getName();
+            if (fileName.length() == name.length() && !fileName.equals(name)
+                    && fileName.startsWith(prefix)
+                    && fileName.endsWith(suffix)) {
+                if (f.delete()) {
+                    logger.info("Deleted " + f.getAbsolutePath());
+                } else {
+                    logger.warn("Failed to delete " + f.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached object of key, or the one built by builder.
+     */
+    public static <T> T get(final String key, final Callable<T> builder)
+            throws IOException {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            final Entry newEntry = new Entry();
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+                removeClearedEntries();
+            }
+        }
+        return entry.get(key, builder);
+    }
+
+    public static int getCachedMapNum() {
+        int num = 0;
+        for (final Entry entry : entries.values()) {
+            if (entry.isCached()) {
+                num++;
+            }
+        }
+        return num;
+    }
+
+    static void clear() {
+        entries.clear();
+    }
+
+    private static void removeClearedEntries() {
+        final Iterator<Map.Entry<String, Entry>> it = entries.entrySet()
+                .iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Entry> entry = it.next();
+            if (entry.getValue().isCleared()) {
+                entries.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes map to file atomically.
+     */
+    public static void write(final SynonymMap map, final File file)
+            throws IOException {
+        final File tempFile = File.createTempFile(file.getName(), ".tmp",
+                file.getAbsoluteFile().getParentFile());
+        boolean moved = false;
+        try {
+            try (OutputStream os = new BufferedOutputStream(
+                    new FileOutputStream(tempFile))) {
+                write(map, new OutputStreamDataOutput(os));
+            }
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    public static void write(final SynonymMap map, final DataOutput out)
+            throws IOException {
+        CodecUtil.writeHeader(out, CODEC_NAME, VERSION);
+        out.writeVInt(map.maxHorizontalContext);
+        final int size = map.words.size();
+        out.writeVInt(size);
+        final BytesRef scratch = new BytesRef();
+        for (int i = 0; i < size; i++) {
+            map.words.get(i, scratch);
+            out.writeVInt(scratch.length);
+            out.writeBytes(scratch.bytes, scratch.offset, scratch.length);
+        }
+        map.fst.save(out);
+    }
+
+    /**
+     * Reads a map written by {@link #write(SynonymMap, File)}.
+     */
+    public static SynonymMap read(final File file) throws IOException {
+        try (Directory dir = FSDirectory.open(file.getParentFile());
+                IndexInput in = dir.openInput(file.getName(),
+                        IOContext.READONCE)) {
+            return read(in);
+        }
+    }
+
+    public static SynonymMap read(final DataInput in) throws IOException {
+        CodecUtil.checkHeader(in, CODEC_NAME, VERSION, VERSION);
+        final int maxHorizontalContext = in.readVInt();
+        final int size = in.readVInt();
+        final BytesRefHash words = new BytesRefHash();
+        for (int i = 0; i < size; i++) {
+            final byte[] bytes = new byte[in.readVInt()];
+            in.readBytes(bytes, 0, bytes.length);
+            if (words.add(new BytesRef(bytes)) != i) {
+                throw new IOException("Duplicated word at " + i);
+            }
+        }
+        final FST<BytesRef> fst = new FST<BytesRef>(in,
+                ByteSequenceOutputs.getSingleton());
+        return new SynonymMap(fst, words, maxHorizontalContext);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+            buf.append(Character.forDigit(b & 0xf, 16));
+        }
+        return buf.toString();
+    }
+
+    private static class Entry {
+        private WeakReference<Object> ref;
+
+        @SuppressWarnings("unchecked")
+        synchronized <T> T get(final String key, final Callable<T> builder)
+                throws IOException {
+            T value = ref != null ? (T) ref.get() : null;
+            if (value == null) {
+                try {
+                    value = builder.call();
+                } catch (final IOException e) {
+                    throw e;
+                } catch (final Exception e) {
+                    throw new IOException("Failed to build " + key, e);
+                }
+                ref = new WeakReference<Object>(value);
+                logger.info("Built " + value.getClass().getSimpleName()
+                        + " for " + key);
+            }
+            return value;
+        }
+
+        synchronized boolean isCached() {
+            return ref != null && ref.get() != null;
+        }
+
+        synchronized boolean isCleared() {
+            return ref != null && ref.get() == null;
+        }
+    }
+}
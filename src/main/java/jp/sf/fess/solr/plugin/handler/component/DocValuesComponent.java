@@ -17,21 +17,51 @@
 package jp.sf.fess.solr.plugin.handler.component;
 
 import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 
 import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfo.DocValuesType;
 import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
 import org.apache.solr.search.DocListAndSet;
 
+/**
+ * Returns DocValues of dcf fields for the hits. Hits are sorted by doc id
+ * and values are read per segment in doc id order, instead of random
+ * access through the composite reader.
+ * <p>
+ * Numeric values are returned as long. Sorted and sorted set values are
+ * converted by the field type in the schema, and each ord is looked up
+ * once per segment in a request. Binary values are returned as byte[].
+ * Stored fields are never read.
+ * </p>
+ * <p>
+ * A field with DocValues in any segment is always returned as a list with
+ * a value per hit, also for an empty page. A hit without a value gets 0
+ * for numeric and null for the other types.
+ * </p>
+ */
 public class DocValuesComponent extends SearchComponent {
 
     private static final String DCF = "dcf";
@@ -54,22 +84,108 @@ public class DocValuesComponent extends SearchComponent {
             }
 
             final DocList docs = results.docList;
-            final NamedList<List<Long>> fragments = new SimpleOrderedMap<List<Long>>();
-            final AtomicReader reader = req.getSearcher().getAtomicReader();
-            for (final String field : docValuesFields) {
-                final NumericDocValues numericDocValues = reader
-                        .getNumericDocValues(field);
-                if (numericDocValues == null) {
+            final int size = docs.size();
+            // doc id in the upper bits and the position of the hit in the
+            // lower bits, so that sorting keeps the way back to the hit
+            final long[] sortedDocs = new long[size];
+            final DocIterator iterator = docs.iterator();
+            for (int i = 0; i < size; i++) {
+                sortedDocs[i] = (long) iterator.nextDoc() << 32 | i;
+            }
+            Arrays.sort(sortedDocs);
+
+            final List<AtomicReaderContext> leaves = req.getSearcher()
+                    .getTopReaderContext().leaves();
+            final SchemaField[] schemaFields = new SchemaField[docValuesFields.length];
+            final DocValuesType[] types = new DocValuesType[docValuesFields.length];
+            // long[] for numeric DocValues, Object[] for others
+            final Object[] values = new Object[docValuesFields.length];
+            for (int f = 0; f < docValuesFields.length; f++) {
+                schemaFields[f] = req.getSchema().getFieldOrNull(
+                        docValuesFields[f]);
+                types[f] = getDocValuesType(leaves, docValuesFields[f]);
+                if (types[f] != null) {
+                    if (types[f] == DocValuesType.NUMERIC) {
+                        values[f] = new long[size];
+                    } else {
+                        values[f] = new Object[size];
+                    }
+                }
+            }
+
+            int pos = 0;
+            for (final AtomicReaderContext leaf : leaves) {
+                if (pos >= size) {
+                    break;
+                }
+                final int docBase = leaf.docBase;
+                final int maxDoc = docBase + leaf.reader().maxDoc();
+                final int start = pos;
+                while (pos < size && (int) (sortedDocs[pos] >>> 32) < maxDoc) {
+                    pos++;
+                }
+                if (start == pos) {
                     continue;
                 }
-                final List<Long> valueList = new ArrayList<Long>();
-                final DocIterator iterator = docs.iterator();
-                for (int i = 0; i < docs.size(); i++) {
-                    final int docId = iterator.nextDoc();
-                    final long value = numericDocValues.get(docId);
-                    valueList.add(value);
+
+                final AtomicReader reader = leaf.reader();
+                final DocRange range = new DocRange(sortedDocs, start, pos,
+                        docBase);
+                for (int f = 0; f < docValuesFields.length; f++) {
+                    if (types[f] == null) {
+                        continue;
+                    }
+                    // a segment without the field keeps 0 or null
+                    final String field = docValuesFields[f];
+                    switch (types[f]) {
+                    case NUMERIC:
+                        final NumericDocValues numericDocValues = reader
+                                .getNumericDocValues(field);
+                        if (numericDocValues != null) {
+                            readNumericValues(numericDocValues, range,
+                                    (long[]) values[f]);
+                        }
+                        break;
+                    case SORTED:
+                        final SortedDocValues sortedDocValues = reader
+                                .getSortedDocValues(field);
+                        if (sortedDocValues != null) {
+                            readSortedValues(sortedDocValues, range,
+                                    schemaFields[f], (Object[]) values[f]);
+                        }
+                        break;
+                    case SORTED_SET:
+                        final SortedSetDocValues sortedSetDocValues = reader
+                                .getSortedSetDocValues(field);
+                        if (sortedSetDocValues != null) {
+                            readSortedSetValues(sortedSetDocValues, range,
+                                    schemaFields[f], (Object[]) values[f]);
+                        }
+                        break;
+                    case BINARY:
+                        final BinaryDocValues binaryDocValues = reader
+                                .getBinaryDocValues(field);
+                        if (binaryDocValues != null) {
+                            readBinaryValues(binaryDocValues,
+                                    reader.getDocsWithField(field), range,
+                                    (Object[]) values[f]);
+                        }
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            }
+
+            final NamedList<List<?>> fragments = new SimpleOrderedMap<List<?>>();
+            for (int f = 0; f < docValuesFields.length; f++) {
+                if (values[f] instanceof long[]) {
+                    fragments.add(docValuesFields[f], new LongArrayList(
+                            (long[]) values[f]));
+                } else if (values[f] != null) {
+                    fragments.add(docValuesFields[f],
+                            Arrays.asList((Object[]) values[f]));
                 }
-                fragments.add(field, valueList);
             }
             if (fragments.size() != 0) {
                 rb.rsp.add(DOC_VALUES, fragments);
@@ -77,6 +193,154 @@ public class DocValuesComponent extends SearchComponent {
         }
     }
 
+    /**
+     * Returns the DocValues type of the field in any segment, so that the
+     * field is returned for every hit even if some segments do not have it.
+     */
+    private DocValuesType getDocValuesType(
+            final List<AtomicReaderContext> leaves, final String field) {
+        for (final AtomicReaderContext leaf : leaves) {
+            final FieldInfo fieldInfo = leaf.reader().getFieldInfos()
+                    .fieldInfo(field);
+            if (fieldInfo != null && fieldInfo.hasDocValues()) {
+                return fieldInfo.getDocValuesType();
+            }
+        }
+        return null;
+    }
+
+    private void readNumericValues(final NumericDocValues docValues,
+            final DocRange range, final long[] values) {
+        for (int i = range.start; i < range.end; i++) {
+            values[range.index(i)] = docValues.get(range.doc(i));
+        }
+    }
+
+    private void readSortedValues(final SortedDocValues docValues,
+            final DocRange range, final SchemaField schemaField,
+            final Object[] values) {
+        // hits in a segment often share ords, such as label or role
+        final Map<Long, Object> ordCache = new HashMap<Long, Object>();
+        for (int i = range.start; i < range.end; i++) {
+            final int ord = docValues.getOrd(range.doc(i));
+            if (ord >= 0) {
+                values[range.index(i)] = lookupOrd(docValues, ord,
+                        schemaField, ordCache);
+            }
+        }
+    }
+
+    private void readSortedSetValues(final SortedSetDocValues docValues,
+            final DocRange range, final SchemaField schemaField,
+            final Object[] values) {
+        final Map<Long, Object> ordCache = new HashMap<Long, Object>();
+        for (int i = range.start; i < range.end; i++) {
+            docValues.setDocument(range.doc(i));
+            final List<Object> valueList = new ArrayList<Object>();
+            long ord = docValues.nextOrd();
+            while (ord != SortedSetDocValues.NO_MORE_ORDS) {
+                valueList.add(lookupOrd(docValues, ord, schemaField, ordCache));
+                ord = docValues.nextOrd();
+            }
+            values[range.index(i)] = valueList;
+        }
+    }
+
+    private void readBinaryValues(final BinaryDocValues docValues,
+            final Bits docsWithField, final DocRange range,
+            final Object[] values) {
+        for (int i = range.start; i < range.end; i++) {
+            final int doc = range.doc(i);
+            if (docsWithField != null && docsWithField.get(doc)) {
+                final BytesRef bytes = docValues.get(doc);
+                values[range.index(i)] = Arrays.copyOfRange(bytes.bytes,
+                        bytes.offset, bytes.offset + bytes.length);
+            }
+        }
+    }
+
+    private Object lookupOrd(final Object docValues, final long ord,
+            final SchemaField schemaField, final Map<Long, Object> ordCache) {
+        Object value = ordCache.get(ord);
+        if (value == null) {
+            final BytesRef term;
+            if (docValues instanceof SortedDocValues) {
+                term = ((SortedDocValues) docValues).lookupOrd((int) ord);
+            } else {
+                term = ((SortedSetDocValues) docValues).lookupOrd(ord);
+            }
+            if (schemaField != null) {
+                value = schemaField.getType().toObject(schemaField, term);
+            } else {
+                value = term.utf8ToString();
+            }
+            ordCache.put(ord, value);
+        }
+        return value;
+    }
+
+    /**
+     * Hits of a segment in sortedDocs[start, end).
+     */
+    private static class DocRange {
+        final long[] sortedDocs;
+
+        final int start;
+
+        final int end;
+
+        final int docBase;
+
+        DocRange(final long[] sortedDocs, final int start, final int end,
+                final int docBase) {
+            this.sortedDocs = sortedDocs;
+            this.start = start;
+            this.end = end;
+            this.docBase = docBase;
+        }
+
+        /**
+         * @return the segment local doc id
+         */
+        int doc(final int i) {
+            return (int) (sortedDocs[i] >>> 32) - docBase;
+        }
+
+        /**
+         * @return the position of the hit in the doc list
+         */
+        int index(final int i) {
+            return (int) sortedDocs[i];
+        }
+    }
+
+    /**
+     * Read-only list view of long[], so that values are boxed only when
+     * the response is written.
+     */
+    protected static class LongArrayList extends AbstractList<Long> implements
+            RandomAccess {
+        private final long[] values;
+
+        protected LongArrayList(final long[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Long get(final int index) {
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        public long[] toLongArray() {
+            return values;
+        }
+    }
+
     @Override
     public String getDescription() {
         return "DocValues";
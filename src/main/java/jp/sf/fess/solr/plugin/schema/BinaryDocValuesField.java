@@ -0,0 +1,80 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.schema;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.util.Base64;
+import org.apache.solr.schema.BinaryField;
+import org.apache.solr.schema.SchemaField;
+
+/**
+ * BinaryField which supports single valued DocValues, so that the value
+ * can be updated in place by DocValueUpdateHandlerFilter. Values are sent
+ * as Base64 encoded strings, byte[] or ByteBuffer as BinaryField.
+ */
+public class BinaryDocValuesField extends BinaryField {
+
+    @Override
+    public void checkSchemaField(final SchemaField field) {
+        // DocValues are supported
+    }
+
+    @Override
+    public List<IndexableField> createFields(final SchemaField field,
+            final Object value, final float boost) {
+        if (!field.hasDocValues()) {
+            return super.createFields(field, value, boost);
+        }
+        if (field.multiValued()) {
+            throw new IllegalArgumentException(
+                    "DocValues of a multi-valued field are not supported: "
+                            + field.getName());
+        }
+
+        final List<IndexableField> fields = new ArrayList<IndexableField>(2);
+        final IndexableField storedField = createField(field, value, boost);
+        if (storedField != null) {
+            fields.add(storedField);
+        }
+        final BytesRef bytes = toBytesRef(value);
+        if (bytes != null) {
+            fields.add(new org.apache.lucene.document.BinaryDocValuesField(
+                    field.getName(), bytes));
+        }
+        return fields;
+    }
+
+    protected BytesRef toBytesRef(final Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof byte[]) {
+            return new BytesRef((byte[]) value);
+        } else if (value instanceof ByteBuffer) {
+            final ByteBuffer buf = ((ByteBuffer) value).duplicate();
+            final byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            return new BytesRef(bytes);
+        }
+        return new BytesRef(Base64.base64ToByteArray(value.toString()));
+    }
+}
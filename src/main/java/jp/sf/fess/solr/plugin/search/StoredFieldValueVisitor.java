@@ -0,0 +1,66 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.StoredFieldVisitor;
+
+/**
+ * Reusable visitor which loads the first string value of a stored field.
+ * Not thread-safe, so use one per FunctionValues.
+ */
+public class StoredFieldValueVisitor extends StoredFieldVisitor {
+    private final String field;
+
+    private String value;
+
+    public StoredFieldValueVisitor(final String field) {
+        this.field = field;
+    }
+
+    @Override
+    public Status needsField(final FieldInfo fieldInfo) throws IOException {
+        if (value != null) {
+            return Status.STOP;
+        }
+        return field.equals(fieldInfo.name) ? Status.YES : Status.NO;
+    }
+
+    @Override
+    public void stringField(final FieldInfo fieldInfo, final String value)
+            throws IOException {
+        if (this.value == null) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Clears the value loaded for the previous document.
+     */
+    public void reset() {
+        value = null;
+    }
+
+    /**
+     * @return the value, or null if the document does not have it
+     */
+    public String getValue() {
+        return value;
+    }
+}
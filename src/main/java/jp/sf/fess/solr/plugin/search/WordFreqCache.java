@@ -0,0 +1,242 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.search;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReader.CoreClosedListener;
+import org.apache.lucene.queries.function.ValueSource;
+
+/**
+ * LRU cache of word frequencies per segment, keyed by the core cache key of
+ * the segment and the value source. Frequencies are filled lazily as they
+ * are computed. Entries of a segment are removed when its core is closed,
+ * and the least recently used entries are evicted over maxBytes, which
+ * counts the overflowed frequencies added after an entry is cached.
+ */
+public class WordFreqCache {
+    private final long maxBytes;
+
+    private long usedBytes = 0;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+            16, 0.75f, true);
+
+    private final Set<Object> listenedCoreKeys = Collections
+            .newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    private final CoreClosedListener coreClosedListener = new CoreClosedListener() {
+        @Override
+        public void onClose(final Object ownerCoreCacheKey) {
+            removeCore(ownerCoreCacheKey);
+        }
+    };
+
+    public WordFreqCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the entry of reader and valueSource, or null if it is too
+     * large to cache
+     */
+    public Entry getEntry(final AtomicReader reader,
+            final ValueSource valueSource) {
+        final Object coreKey = reader.getCoreCacheKey();
+        final Key key = new Key(coreKey, valueSource);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                return entry;
+            }
+
+            final int maxDoc = reader.maxDoc();
+            final long bytes = Entry.ramBytes(maxDoc);
+            if (bytes > maxBytes) {
+                return null;
+            }
+            if (listenedCoreKeys.add(coreKey)) {
+                reader.addCoreClosedListener(coreClosedListener);
+            }
+            entry = new Entry(this, maxDoc);
+            entries.put(key, entry);
+            usedBytes += bytes;
+            evict(entry);
+            return entry;
+        }
+    }
+
+    void addOverflowBytes(final Entry entry, final long bytes) {
+        synchronized (entries) {
+            entry.overflowBytes += bytes;
+            if (entry.cached) {
+                usedBytes += bytes;
+                evict(null);
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries except keep until usedBytes
+     * fits in maxBytes.
+     */
+    private void evict(final Entry keep) {
+        final Iterator<Map.Entry<Key, Entry>> it = entries.entrySet()
+                .iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            final Entry eldest = it.next().getValue();
+            if (eldest != keep) {
+                remove(it, eldest);
+            }
+        }
+    }
+
+    private void remove(final Iterator<Map.Entry<Key, Entry>> it,
+            final Entry entry) {
+        usedBytes -= entry.ramBytes();
+        entry.cached = false;
+        it.remove();
+    }
+
+    protected void removeCore(final Object coreKey) {
+        synchronized (entries) {
+            final Iterator<Map.Entry<Key, Entry>> it = entries.entrySet()
+                    .iterator();
+            while (it.hasNext()) {
+                final Map.Entry<Key, Entry> entry = it.next();
+                if (entry.getKey().coreKey == coreKey) {
+                    remove(it, entry.getValue());
+                }
+            }
+        }
+        listenedCoreKeys.remove(coreKey);
+    }
+
+    public int getEntryNum() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getUsedBytes() {
+        synchronized (entries) {
+            return usedBytes;
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Frequencies of a segment in a byte per document. 0 means not computed
+     * yet, 255 means the value is in overflows, and others are value + 1.
+     * Concurrent writers store the same value, so values are not locked.
+     * The size of overflows is reported to the cache as it grows.
+     */
+    public static class Entry {
+        private static final int OVERFLOW = 0xff;
+
+        /** estimated size of an Integer pair in a ConcurrentHashMap */
+        static final long OVERFLOW_ENTRY_BYTES = 64;
+
+        private final WordFreqCache cache;
+
+        private final byte[] values;
+
+        private final ConcurrentMap<Integer, Integer> overflows = new ConcurrentHashMap<Integer, Integer>();
+
+        /** guarded by the entries of the cache */
+        long overflowBytes = 0;
+
+        /** guarded by the entries of the cache */
+        boolean cached = true;
+
+        Entry(final WordFreqCache cache, final int maxDoc) {
+            this.cache = cache;
+            values = new byte[maxDoc];
+        }
+
+        static long ramBytes(final int maxDoc) {
+            return maxDoc + 64;
+        }
+
+        long ramBytes() {
+            return ramBytes(values.length) + overflowBytes;
+        }
+
+        /**
+         * @return the cached value, or -1 if it is not computed
+         */
+        public int get(final int docId) {
+            final int b = values[docId] & 0xff;
+            if (b == OVERFLOW) {
+                final Integer value = overflows.get(docId);
+                return value != null ? value : -1;
+            }
+            return b - 1;
+        }
+
+        public void set(final int docId, final int value) {
+            if (value < OVERFLOW - 1) {
+                values[docId] = (byte) (value + 1);
+            } else {
+                if (overflows.put(docId, value) == null) {
+                    cache.addOverflowBytes(this, OVERFLOW_ENTRY_BYTES);
+                }
+                values[docId] = (byte) OVERFLOW;
+            }
+        }
+    }
+
+    private static class Key {
+        final Object coreKey;
+
+        final ValueSource valueSource;
+
+        final int hashCode;
+
+        Key(final Object coreKey, final ValueSource valueSource) {
+            this.coreKey = coreKey;
+            this.valueSource = valueSource;
+            hashCode = 31 * System.identityHashCode(coreKey)
+                    + valueSource.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return coreKey == other.coreKey
+                    && valueSource.equals(other.valueSource);
+        }
+    }
+}
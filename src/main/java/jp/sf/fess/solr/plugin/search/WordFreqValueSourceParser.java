@@ -17,30 +17,100 @@
 package jp.sf.fess.solr.plugin.search;
 
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.lucene.document.Document;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queries.function.FunctionValues;
 import org.apache.lucene.queries.function.ValueSource;
 import org.apache.lucene.queries.function.docvalues.IntDocValues;
-import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.util.NamedList;
 import org.apache.solr.search.FunctionQParser;
 import org.apache.solr.search.SyntaxError;
 import org.apache.solr.search.ValueSourceParser;
 
+/**
+ * Parses wordfreq(field, word[, normalized[, mode]]), the frequency of word
+ * in field.
+ * <ul>
+ * <li>postings : the frequency of the analyzed word read from postings. A
+ * word analyzed into several terms is counted as a phrase.</li>
+ * <li>substring : the number of occurrences of word in the stored value.</li>
+ * </ul>
+ * The default mode is given by the "mode" init arg, or substring. If the
+ * "cacheMemoryLimit" init arg is set, computed frequencies are cached per
+ * segment up to the bytes.
+ */
 public class WordFreqValueSourceParser extends ValueSourceParser {
 
+    protected Mode defaultMode = Mode.SUBSTRING;
+
+    protected WordFreqCache cache;
+
+    @Override
+    public void init(@SuppressWarnings("rawtypes") final NamedList args) {
+        if (args != null) {
+            final Object mode = args.get("mode");
+            if (mode != null) {
+                defaultMode = Mode.valueOf(mode.toString().toUpperCase(
+                        Locale.ROOT));
+            }
+            final Object cacheMemoryLimit = args.get("cacheMemoryLimit");
+            if (cacheMemoryLimit != null) {
+                final long maxBytes = Long.parseLong(cacheMemoryLimit
+                        .toString());
+                if (maxBytes > 0) {
+                    cache = new WordFreqCache(maxBytes);
+                }
+            }
+        }
+    }
+
     @Override
     public ValueSource parse(final FunctionQParser fp) throws SyntaxError {
         final String field = fp.parseArg();
         final String word = fp.parseArg();
         final boolean normalized = !"false".equals(fp.parseArg());
-        return new WordFreqValueSource(field, word, normalized);
+        final String modeArg = fp.parseArg();
+        Mode mode = defaultMode;
+        if (modeArg != null) {
+            try {
+                mode = Mode.valueOf(modeArg.toUpperCase(Locale.ROOT));
+            } catch (final IllegalArgumentException e) {
+                throw new SyntaxError("Unknown mode: " + modeArg);
+            }
+        }
+        final WordFreqValueSource valueSource;
+        if (mode == Mode.POSTINGS) {
+            final Analyzer analyzer = fp.getReq().getSchema()
+                    .getFieldType(field).getQueryAnalyzer();
+            valueSource = new WordFreqValueSource(field, word, normalized,
+                    analyzer);
+        } else {
+            valueSource = new WordFreqValueSource(field, word, normalized);
+        }
+        valueSource.setCache(cache);
+        return valueSource;
+    }
+
+    public enum Mode {
+        POSTINGS, SUBSTRING;
     }
 
     public static class WordFreqValueSource extends ValueSource {
@@ -50,12 +120,66 @@ public class WordFreqValueSourceParser extends ValueSourceParser {
 
         protected final boolean normalized;
 
+        protected final Mode mode;
+
+        /** analyzed terms of word for postings */
+        protected final BytesRef[] terms;
+
+        /** positions of terms relative to the first one */
+        protected final int[] termPositions;
+
+        protected WordFreqCache cache;
+
         public WordFreqValueSource(final String field, final String word,
                 final boolean normalized) {
             super();
             this.field = field;
             this.word = normalized ? normalize(word) : word;
             this.normalized = normalized;
+            mode = Mode.SUBSTRING;
+            terms = null;
+            termPositions = null;
+        }
+
+        /**
+         * Creates a value source which reads frequencies of word analyzed by
+         * analyzer from postings. Segments where field is not indexed with
+         * frequencies are counted by substrings.
+         */
+        public WordFreqValueSource(final String field, final String word,
+                final boolean normalized, final Analyzer analyzer) {
+            super();
+            this.field = field;
+            this.word = normalized ? normalize(word) : word;
+            this.normalized = normalized;
+            mode = Mode.POSTINGS;
+
+            final List<BytesRef> termList = new ArrayList<BytesRef>();
+            final List<Integer> positionList = new ArrayList<Integer>();
+            try (TokenStream stream = analyzer.tokenStream(field, this.word)) {
+                final TermToBytesRefAttribute termAtt = stream
+                        .addAttribute(TermToBytesRefAttribute.class);
+                final PositionIncrementAttribute posIncAtt = stream
+                        .addAttribute(PositionIncrementAttribute.class);
+                final BytesRef bytes = termAtt.getBytesRef();
+                stream.reset();
+                int position = -1;
+                while (stream.incrementToken()) {
+                    termAtt.fillBytesRef();
+                    position += posIncAtt.getPositionIncrement();
+                    termList.add(BytesRef.deepCopyOf(bytes));
+                    positionList.add(position);
+                }
+                stream.end();
+            } catch (final IOException e) {
+                throw new IllegalStateException("Failed to analyze " + word,
+                        e);
+            }
+            terms = termList.toArray(new BytesRef[termList.size()]);
+            termPositions = new int[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                termPositions[i] = positionList.get(i) - positionList.get(0);
+            }
         }
 
         public String name() {
@@ -66,34 +190,86 @@ public class WordFreqValueSourceParser extends ValueSourceParser {
             return value.toLowerCase(Locale.getDefault());
         }
 
+        /**
+         * Sets the cache of frequencies, which is not a part of equals().
+         */
+        public void setCache(final WordFreqCache cache) {
+            this.cache = cache;
+        }
+
         @Override
         public FunctionValues getValues(
                 @SuppressWarnings("rawtypes") final Map context,
                 final AtomicReaderContext readerContext) throws IOException {
+            final FunctionValues values = createValues(context,
+                    readerContext);
+            if (cache == null) {
+                return values;
+            }
+            final WordFreqCache.Entry entry = cache.getEntry(
+                    readerContext.reader(), this);
+            if (entry == null) {
+                return values;
+            }
             return new IntDocValues(this) {
                 @Override
                 public int intVal(final int docId) {
-                    final IndexSearcher searcher = (IndexSearcher) context
-                            .get("searcher");
-                    final Set<String> fieldSet = new HashSet<String>();
-                    fieldSet.add(field);
+                    int value = entry.get(docId);
+                    if (value < 0) {
+                        value = values.intVal(docId);
+                        entry.set(docId, value);
+                    }
+                    return value;
+                }
+            };
+        }
+
+        protected FunctionValues createValues(
+                @SuppressWarnings("rawtypes") final Map context,
+                final AtomicReaderContext readerContext) throws IOException {
+            if (mode == Mode.POSTINGS && hasPostings(readerContext.reader())) {
+                return new PostingsDocValues(readerContext.reader());
+            }
+            // segment local doc ids are passed to the leaf reader
+            final AtomicReader reader = readerContext.reader();
+            final StoredFieldValueVisitor visitor = new StoredFieldValueVisitor(
+                    field);
+            return new IntDocValues(this) {
+                @Override
+                public int intVal(final int docId) {
+                    visitor.reset();
                     try {
-                        final Document doc = searcher.doc(docId, fieldSet);
-                        if (doc != null) {
-                            String value = doc.get(field);
-                            if (normalized) {
-                                value = normalize(value);
-                            }
-                            return StringUtils.countMatches(value, word);
-                        }
+                        reader.document(docId, visitor);
                     } catch (final IOException e) {
-                        // ignore
+                        return 0;
                     }
-                    return 0;
+                    String value = visitor.getValue();
+                    if (value == null) {
+                        return 0;
+                    }
+                    if (normalized) {
+                        value = normalize(value);
+                    }
+                    return StringUtils.countMatches(value, word);
                 }
             };
         }
 
+        protected boolean hasPostings(final AtomicReader reader) {
+            final FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(
+                    field);
+            if (fieldInfo == null) {
+                // no document has the field in this segment
+                return true;
+            }
+            if (!fieldInfo.isIndexed()) {
+                return false;
+            }
+            final IndexOptions required = terms.length > 1 ? IndexOptions.DOCS_AND_FREQS_AND_POSITIONS
+                    : IndexOptions.DOCS_AND_FREQS;
+            return fieldInfo.getIndexOptions().compareTo(required) >= 0;
+        }
+
         @Override
         public boolean equals(final Object o) {
             if (o == null || this.getClass() != o.getClass()) {
@@ -101,20 +277,144 @@ public class WordFreqValueSourceParser extends ValueSourceParser {
             }
             final WordFreqValueSource other = (WordFreqValueSource) o;
             return field.equals(other.field) && word.equals(other.word)
-                    && normalized == other.normalized;
+                    && normalized == other.normalized && mode == other.mode
+                    && Arrays.equals(terms, other.terms)
+                    && Arrays.equals(termPositions, other.termPositions);
 
         }
 
         @Override
         public int hashCode() {
-            return (field + word).hashCode() + (normalized ? 1231 : 1237);
+            return (field + word).hashCode() + (normalized ? 1231 : 1237)
+                    + 31 * mode.hashCode();
 
         }
 
         @Override
         public String description() {
+            if (mode == Mode.POSTINGS) {
+                return name() + '(' + field + ',' + word + ",postings)";
+            }
             return name() + '(' + field + ',' + word + ')';
         }
 
+        /**
+         * Reads frequencies from postings of a segment. Documents are
+         * expected in increasing order, and the postings are read again if
+         * an earlier document is requested.
+         */
+        protected class PostingsDocValues extends IntDocValues {
+            private final AtomicReader reader;
+
+            private DocsEnum[] docsEnums;
+
+            private int[][] positions;
+
+            private int lastDoc = Integer.MAX_VALUE;
+
+            private int lastFreq;
+
+            protected PostingsDocValues(final AtomicReader reader) {
+                super(WordFreqValueSource.this);
+                this.reader = reader;
+            }
+
+            @Override
+            public int intVal(final int docId) {
+                if (docId == lastDoc) {
+                    return lastFreq;
+                }
+                try {
+                    if (docId < lastDoc) {
+                        pull();
+                    }
+                    lastFreq = freq(docId);
+                } catch (final IOException e) {
+                    lastFreq = 0;
+                }
+                lastDoc = docId;
+                return lastFreq;
+            }
+
+            private void pull() throws IOException {
+                docsEnums = null;
+                if (terms.length == 0) {
+                    return;
+                }
+                final DocsEnum[] enums = new DocsEnum[terms.length];
+                for (int i = 0; i < terms.length; i++) {
+                    final Term term = new Term(field, terms[i]);
+                    if (terms.length == 1) {
+                        enums[i] = reader.termDocsEnum(term);
+                    } else {
+                        enums[i] = reader.termPositionsEnum(term);
+                    }
+                    if (enums[i] == null) {
+                        return;
+                    }
+                }
+                docsEnums = enums;
+                if (positions == null && terms.length > 1) {
+                    positions = new int[terms.length][16];
+                }
+            }
+
+            private int freq(final int docId) throws IOException {
+                if (docsEnums == null) {
+                    return 0;
+                }
+                for (final DocsEnum docsEnum : docsEnums) {
+                    int doc = docsEnum.docID();
+                    if (doc < docId) {
+                        doc = docsEnum.advance(docId);
+                    }
+                    if (doc != docId || doc == DocIdSetIterator.NO_MORE_DOCS) {
+                        return 0;
+                    }
+                }
+                if (docsEnums.length == 1) {
+                    return docsEnums[0].freq();
+                }
+                return phraseFreq();
+            }
+
+            private int phraseFreq() throws IOException {
+                final int size = docsEnums.length;
+                final int[] lengths = new int[size];
+                for (int i = 0; i < size; i++) {
+                    final DocsAndPositionsEnum postings = (DocsAndPositionsEnum) docsEnums[i];
+                    final int freq = postings.freq();
+                    if (positions[i].length < freq) {
+                        positions[i] = new int[freq];
+                    }
+                    for (int j = 0; j < freq; j++) {
+                        positions[i][j] = postings.nextPosition();
+                    }
+                    lengths[i] = freq;
+                }
+
+                int count = 0;
+                final int[] pointers = new int[size];
+                outer: for (int k = 0; k < lengths[0]; k++) {
+                    final int start = positions[0][k];
+                    for (int i = 1; i < size; i++) {
+                        final int target = start + termPositions[i];
+                        int p = pointers[i];
+                        while (p < lengths[i] && positions[i][p] < target) {
+                            p++;
+                        }
+                        pointers[i] = p;
+                        if (p == lengths[i]) {
+                            break outer;
+                        }
+                        if (positions[i][p] != target) {
+                            continue outer;
+                        }
+                    }
+                    count++;
+                }
+                return count;
+            }
+        }
     }
 }
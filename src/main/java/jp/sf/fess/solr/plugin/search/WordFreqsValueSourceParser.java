@@ -0,0 +1,203 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import jp.sf.fess.solr.plugin.util.AhoCorasickAutomaton;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.queries.function.ValueSource;
+import org.apache.lucene.queries.function.docvalues.FloatDocValues;
+import org.apache.solr.search.FunctionQParser;
+import org.apache.solr.search.SyntaxError;
+import org.apache.solr.search.ValueSourceParser;
+
+/**
+ * Parses wordfreqs(field, word1[^weight1], word2[^weight2], ...), the
+ * weighted sum of the frequencies of words in the stored value of field.
+ * Each word is counted as wordfreq() in substring mode does, but the value
+ * is loaded and scanned only once for all words.
+ */
+public class WordFreqsValueSourceParser extends ValueSourceParser {
+
+    @Override
+    public ValueSource parse(final FunctionQParser fp) throws SyntaxError {
+        final String field = fp.parseArg();
+        final List<String> words = new ArrayList<String>();
+        final List<Float> weights = new ArrayList<Float>();
+        while (fp.hasMoreArguments()) {
+            final String arg = fp.parseArg();
+            if (arg == null) {
+                break;
+            }
+            String word = arg;
+            float weight = 1.0f;
+            final int pos = arg.lastIndexOf('^');
+            if (pos > 0) {
+                try {
+                    weight = Float.parseFloat(arg.substring(pos + 1));
+                    word = arg.substring(0, pos);
+                } catch (final NumberFormatException e) {
+                    // a part of the word
+                }
+            }
+            words.add(word);
+            weights.add(weight);
+        }
+        if (words.isEmpty()) {
+            throw new SyntaxError("No word for wordfreqs on " + field);
+        }
+        return new WordFreqsValueSource(field, words, weights);
+    }
+
+    public static class WordFreqsValueSource extends ValueSource {
+        protected final String field;
+
+        protected final String[] words;
+
+        protected final float[] weights;
+
+        protected final AhoCorasickAutomaton automaton;
+
+        /**
+         * Words are normalized and the weights of the same words are summed.
+         */
+        public WordFreqsValueSource(final String field,
+                final List<String> words, final List<Float> weights) {
+            super();
+            if (words.size() != weights.size()) {
+                throw new IllegalArgumentException(
+                        "The number of words and weights are different: "
+                                + words.size() + " / " + weights.size());
+            }
+            this.field = field;
+
+            final Map<String, Float> weightMap = new LinkedHashMap<String, Float>();
+            for (int i = 0; i < words.size(); i++) {
+                final String word = normalize(words.get(i));
+                if (word.length() == 0) {
+                    continue;
+                }
+                final Float weight = weightMap.get(word);
+                weightMap.put(word, weight == null ? weights.get(i) : weight
+                        + weights.get(i));
+            }
+            this.words = weightMap.keySet().toArray(
+                    new String[weightMap.size()]);
+            this.weights = new float[this.words.length];
+            for (int i = 0; i < this.words.length; i++) {
+                this.weights[i] = weightMap.get(this.words[i]);
+            }
+            automaton = AhoCorasickAutomaton.build(Arrays.asList(this.words));
+        }
+
+        public String name() {
+            return "wordfreqs";
+        }
+
+        protected String normalize(final String value) {
+            return value.toLowerCase(Locale.getDefault());
+        }
+
+        @Override
+        public FunctionValues getValues(
+                @SuppressWarnings("rawtypes") final Map context,
+                final AtomicReaderContext readerContext) throws IOException {
+            final AtomicReader reader = readerContext.reader();
+            final StoredFieldValueVisitor visitor = new StoredFieldValueVisitor(
+                    field);
+            return new FloatDocValues(this) {
+                @Override
+                public float floatVal(final int docId) {
+                    visitor.reset();
+                    try {
+                        reader.document(docId, visitor);
+                    } catch (final IOException e) {
+                        return 0;
+                    }
+                    final String value = visitor.getValue();
+                    if (value == null) {
+                        return 0;
+                    }
+                    return score(normalize(value));
+                }
+            };
+        }
+
+        /**
+         * Sums the weights of non-overlapping occurrences of each word, as
+         * StringUtils.countMatches() counts them.
+         */
+        protected float score(final String value) {
+            final int[] lastEnds = new int[words.length];
+            float score = 0;
+            int state = AhoCorasickAutomaton.ROOT;
+            final int length = value.length();
+            for (int i = 0; i < length; i++) {
+                state = automaton.step(state, value.charAt(i));
+                int node = automaton.getPatternId(state) >= 0 ? state
+                        : automaton.getOutputLink(state);
+                while (node >= 0) {
+                    final int id = automaton.getPatternId(node);
+                    if (i + 1 - words[id].length() >= lastEnds[id]) {
+                        score += weights[id];
+                        lastEnds[id] = i + 1;
+                    }
+                    node = automaton.getOutputLink(node);
+                }
+            }
+            return score;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == null || this.getClass() != o.getClass()) {
+                return false;
+            }
+            final WordFreqsValueSource other = (WordFreqsValueSource) o;
+            return field.equals(other.field)
+                    && Arrays.equals(words, other.words)
+                    && Arrays.equals(weights, other.weights);
+        }
+
+        @Override
+        public int hashCode() {
+            return field.hashCode() + 31 * Arrays.hashCode(words)
+                    + Arrays.hashCode(weights);
+        }
+
+        @Override
+        public String description() {
+            final StringBuilder buf = new StringBuilder();
+            buf.append(name()).append('(').append(field);
+            for (int i = 0; i < words.length; i++) {
+                buf.append(',').append(words[i]).append('^')
+                        .append(weights[i]);
+            }
+            return buf.append(')').toString();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Credit based flow control for SuggestUpdateController.
+ *
+ * A producer takes a document credit before queuing a request and the
+ * consumer gives it back when the request is dequeued, which wakes up a
+ * waiting producer immediately. Term capacity is owned by IndexUpdater and
+ * is not signalled, so it is re-checked every termCheckInterval. Producers
+ * do not wait while the consumer is not running, because nobody would give
+ * the credits back.
+ */
+public class SuggestFlowController {
+    public static final long DEFAULT_TERM_CHECK_INTERVAL = 100;
+
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    protected final Condition released = lock.newCondition();
+
+    protected final TermCounter termCounter;
+
+    protected final Consumer consumer;
+
+    protected volatile int limitDocumentQueuingNum = 50;
+
+    protected volatile long limitTermQueuingNum = 50000;
+
+    protected volatile long termCheckInterval = DEFAULT_TERM_CHECK_INTERVAL;
+
+    protected int queuingDocumentNum = 0;
+
+    protected volatile boolean closed = false;
+
+    protected final AtomicLong totalWaitTime = new AtomicLong();
+
+    protected final AtomicLong waitCount = new AtomicLong();
+
+    public SuggestFlowController(final TermCounter termCounter) {
+        this(termCounter, new Consumer() {
+            @Override
+            public boolean isRunning() {
+                return true;
+            }
+        });
+    }
+
+    public SuggestFlowController(final TermCounter termCounter,
+            final Consumer consumer) {
+        this.termCounter = termCounter;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Takes a document credit, waiting until both document and term
+     * capacity are available or the consumer stops.
+     */
+    public void acquireDocument() throws InterruptedException {
+        final long start = System.nanoTime();
+        boolean waited = false;
+        lock.lock();
+        try {
+            while (!closed
+                    && consumer.isRunning()
+                    && (queuingDocumentNum >= limitDocumentQueuingNum || !hasTermCapacity())) {
+                waited = true;
+                // timed, so that a stopped consumer is noticed
+                released.await(termCheckInterval, TimeUnit.MILLISECONDS);
+            }
+            queuingDocumentNum++;
+        } finally {
+            lock.unlock();
+            if (waited) {
+                addWaitTime(start);
+            }
+        }
+    }
+
+    /**
+     * Gives a document credit back and wakes up waiting producers.
+     */
+    public void releaseDocument() {
+        lock.lock();
+        try {
+            if (queuingDocumentNum > 0) {
+                queuingDocumentNum--;
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the number of terms queued in IndexUpdater goes below
+     * limitTermQueuingNum.
+     */
+    public void awaitTermCapacity() throws InterruptedException {
+        if (hasTermCapacity()) {
+            return;
+        }
+        final long start = System.nanoTime();
+        lock.lock();
+        try {
+            while (!closed && consumer.isRunning() && !hasTermCapacity()) {
+                released.await(termCheckInterval, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+            addWaitTime(start);
+        }
+    }
+
+    public void close() {
+        closed = true;
+        lock.lock();
+        try {
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected boolean hasTermCapacity() {
+        return termCounter.getQueuingTermNum() <= limitTermQueuingNum;
+    }
+
+    protected void addWaitTime(final long start) {
+        totalWaitTime.addAndGet(System.nanoTime() - start);
+        waitCount.incrementAndGet();
+    }
+
+    public int getDocumentCredits() {
+        lock.lock();
+        try {
+            return Math.max(0, limitDocumentQueuingNum - queuingDocumentNum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTermCredits() {
+        return Math.max(0,
+                limitTermQueuingNum - termCounter.getQueuingTermNum());
+    }
+
+    /**
+     * @return total time in milliseconds producers spent waiting for credits
+     */
+    public long getTotalWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitTime.get());
+    }
+
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    public int getLimitDocumentQueuingNum() {
+        return limitDocumentQueuingNum;
+    }
+
+    public void setLimitDocumentQueuingNum(final int limitDocumentQueuingNum) {
+        this.limitDocumentQueuingNum = Math.max(1, limitDocumentQueuingNum);
+        lock.lock();
+        try {
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getLimitTermQueuingNum() {
+        return limitTermQueuingNum;
+    }
+
+    public void setLimitTermQueuingNum(final long limitTermQueuingNum) {
+        this.limitTermQueuingNum = limitTermQueuingNum;
+    }
+
+    public long getTermCheckInterval() {
+        return termCheckInterval;
+    }
+
+    public void setTermCheckInterval(final long termCheckInterval) {
+        this.termCheckInterval = termCheckInterval;
+    }
+
+    @Override
+    public String toString() {
+        return "SuggestFlowController [documentCredits="
+                + getDocumentCredits() + ", termCredits=" + getTermCredits()
+                + ", totalWaitTime=" + getTotalWaitTime() + ", waitCount="
+                + getWaitCount() + "]";
+    }
+
+    public interface TermCounter {
+        long getQueuingTermNum();
+    }
+
+    public interface Consumer {
+        boolean isRunning();
+    }
+}
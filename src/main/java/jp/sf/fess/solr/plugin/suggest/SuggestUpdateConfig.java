@@ -35,6 +35,12 @@ public class SuggestUpdateConfig {
 
     private String segmentField = "segment";
 
+    private int tokenizeThreadNum = 1;
+
+    private int termAggregationSize = 10000;
+
+    private boolean badWordWildcard = false;
+
     private final List<FieldConfig> fieldConfigList = new ArrayList<FieldConfig>();
 
     public SolrServer getSolrServer() {
@@ -69,6 +75,30 @@ public class SuggestUpdateConfig {
         this.segmentField = segmentField;
     }
 
+    public int getTokenizeThreadNum() {
+        return tokenizeThreadNum;
+    }
+
+    public void setTokenizeThreadNum(final int tokenizeThreadNum) {
+        this.tokenizeThreadNum = tokenizeThreadNum;
+    }
+
+    public int getTermAggregationSize() {
+        return termAggregationSize;
+    }
+
+    public void setTermAggregationSize(final int termAggregationSize) {
+        this.termAggregationSize = termAggregationSize;
+    }
+
+    public boolean isBadWordWildcard() {
+        return badWordWildcard;
+    }
+
+    public void setBadWordWildcard(final boolean badWordWildcard) {
+        this.badWordWildcard = badWordWildcard;
+    }
+
     public String[] getLabelFields() {
         return labelFields;
     }
@@ -102,6 +132,10 @@ public class SuggestUpdateConfig {
 
         private final List<NormalizerConfig> normalizerConfigList = new ArrayList<NormalizerConfig>();
 
+        private int maxFieldLength = 0;
+
+        private boolean streaming = false;
+
         public String[] getTargetFields() {
             return targetFields;
         }
@@ -133,6 +167,22 @@ public class SuggestUpdateConfig {
         public void addNormalizerConfig(final NormalizerConfig normalizerConfig) {
             normalizerConfigList.add(normalizerConfig);
         }
+
+        public int getMaxFieldLength() {
+            return maxFieldLength;
+        }
+
+        public void setMaxFieldLength(final int maxFieldLength) {
+            this.maxFieldLength = maxFieldLength;
+        }
+
+        public boolean isStreaming() {
+            return streaming;
+        }
+
+        public void setStreaming(final boolean streaming) {
+            this.streaming = streaming;
+        }
     }
 
     public static class TokenizerConfig {
@@ -18,26 +18,39 @@ package jp.sf.fess.solr.plugin.suggest;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import jp.sf.fess.solr.plugin.analysis.monitor.MonitoringTask;
 import jp.sf.fess.solr.plugin.suggest.entity.SuggestFieldInfo;
+import jp.sf.fess.solr.plugin.suggest.entity.TransactionLogPosition;
 import jp.sf.fess.solr.plugin.suggest.enums.RequestType;
+import jp.sf.fess.solr.plugin.suggest.index.BadWordFilter;
+import jp.sf.fess.solr.plugin.suggest.index.CommitNotifyingSolrServer;
 import jp.sf.fess.solr.plugin.suggest.index.DocumentReader;
+import jp.sf.fess.solr.plugin.suggest.index.SuggestItemAggregator;
+import jp.sf.fess.solr.plugin.suggest.index.TransactionLogReader;
 import jp.sf.fess.solr.plugin.suggest.util.TransactionLogUtil;
+import jp.sf.fess.solr.plugin.util.MonitoringUtil;
 import jp.sf.fess.suggest.SuggestConstants;
-import jp.sf.fess.suggest.converter.SuggestReadingConverter;
 import jp.sf.fess.suggest.entity.SuggestItem;
 import jp.sf.fess.suggest.exception.FessSuggestException;
 import jp.sf.fess.suggest.index.IndexUpdater;
-import jp.sf.fess.suggest.normalizer.SuggestNormalizer;
 
 import jp.sf.fess.suggest.server.SuggestSolrServer;
-import org.apache.lucene.analysis.util.TokenizerFactory;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.core.SolrResourceLoader;
-import org.apache.solr.update.TransactionLog;
 import org.apache.solr.update.UpdateLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,12 +67,15 @@ public class SuggestUpdateController {
 
     protected final IndexUpdater indexUpdater;
 
-    protected int limitDocumentQueuingNum = 50;
+    protected final SuggestItemAggregator itemAggregator;
 
-    protected int limitTermQueuingNum = 50000;
+    protected final SuggestFlowController flowController;
 
     protected final BlockingQueue<Request> requestQueue = new LinkedBlockingQueue<Request>();
 
+    /** COMMIT requests passed to IndexUpdater and not applied yet */
+    protected final Queue<Request> pendingCommitQueue = new ConcurrentLinkedQueue<Request>();
+
     protected final List<String> labelFieldNameList = Collections
         .synchronizedList(new ArrayList<String>()); // TODO
 
@@ -70,13 +86,41 @@ public class SuggestUpdateController {
 
     protected final SuggestUpdateConfig config;
 
+    protected ExecutorService tokenizeExecutor;
+
+    protected File checkpointFile;
+
+    protected volatile BadWordFilter badWordFilter = BadWordFilter.EMPTY;
+
+    protected MonitoringTask badWordMonitoringTask;
+
     public SuggestUpdateController(final SuggestUpdateConfig config,
                                    final List<SuggestFieldInfo> fieldInfoList,
                                    final SolrResourceLoader loader) {
         final SuggestSolrServer suggestSolrServer = new SuggestSolrServer(
-            config.getSolrServer());
+            new CommitNotifyingSolrServer(config.getSolrServer(),
+                new CommitNotifyingSolrServer.CommitListener() {
+                    @Override
+                    public void onCommit() {
+                        commitApplied();
+                    }
+                }));
         indexUpdater = new IndexUpdater(suggestSolrServer);
         indexUpdater.setUpdateInterval(config.getUpdateInterval());
+        itemAggregator = new SuggestItemAggregator(indexUpdater,
+            config.getTermAggregationSize());
+        flowController = new SuggestFlowController(
+            new SuggestFlowController.TermCounter() {
+                @Override
+                public long getQueuingTermNum() {
+                    return indexUpdater.getQueuingItemNum();
+                }
+            }, new SuggestFlowController.Consumer() {
+                @Override
+                public boolean isRunning() {
+                    return updateTask.isRunning();
+                }
+            });
         suggestFieldInfoList = fieldInfoList;
 
         this.config = config;
@@ -97,24 +141,34 @@ public class SuggestUpdateController {
                 }
 
                 @Override
-                public void commitCBK() {
-                    commit();
+                public void commitCBK(final TransactionLogPosition position) {
+                    request(new Request(RequestType.COMMIT, position));
                 }
             });
     }
 
     public void start() {
+        badWordMonitoringTask = createBadWordMonitoringTask();
+        badWordFilter = loadBadWordFilter();
+        final int threadNum = config.getTokenizeThreadNum();
+        if (threadNum > 1) {
+            tokenizeExecutor = createTokenizeExecutor(threadNum);
+        }
         indexUpdater.start();
         updateTask.start();
         transactionLogParseTask.start();
     }
 
     public void setLimitTermQueuingNum(final int limitTermQueuingNum) {
-        this.limitTermQueuingNum = limitTermQueuingNum;
+        flowController.setLimitTermQueuingNum(limitTermQueuingNum);
     }
 
     public void setLimitDocumentQueuingNum(final int limitDocumentQueuingNum) {
-        this.limitDocumentQueuingNum = limitDocumentQueuingNum;
+        flowController.setLimitDocumentQueuingNum(limitDocumentQueuingNum);
+    }
+
+    public SuggestFlowController getFlowController() {
+        return flowController;
     }
 
     public void add(final SolrInputDocument doc) {
@@ -130,14 +184,34 @@ public class SuggestUpdateController {
     }
 
     public void addTransactionLog(final File translog) {
-        transactionLogParseTask.addTransactionLog(translog);
+        transactionLogParseTask.addTransactionLog(new TransactionLogPosition(
+            translog, 0));
+    }
+
+    public void addTransactionLog(final File translog, final long position) {
+        transactionLogParseTask.addTransactionLog(new TransactionLogPosition(
+            translog, position));
+    }
+
+    /**
+     * Sets a file to record the tlog position of the last COMMIT applied
+     * to the suggest index. Records after it are replayed on restart.
+     */
+    public void setCheckpointFile(final File checkpointFile) {
+        this.checkpointFile = checkpointFile;
     }
 
     public void close() {
         if (logger.isInfoEnabled()) {
-            logger.info("closing suggestController");
+            logger.info("closing suggestController. " + flowController
+                + " aggregated:" + itemAggregator.getAddedItemNum() + "->"
+                + itemAggregator.getFlushedItemNum());
         }
+        flowController.close();
         updateTask.close();
+        if (tokenizeExecutor != null) {
+            tokenizeExecutor.shutdownNow();
+        }
         transactionLogParseTask.close();
         indexUpdater.close();
         requestQueue.clear();
@@ -158,26 +232,107 @@ public class SuggestUpdateController {
         }
     }
 
+    /**
+     * Called when IndexUpdater has applied a commit to the suggest index.
+     * Commits are applied in the order they are passed to IndexUpdater.
+     */
+    protected void commitApplied() {
+        final Request request = pendingCommitQueue.poll();
+        if (request != null && request.obj != null && checkpointFile != null) {
+            TransactionLogUtil.saveCheckpoint(checkpointFile,
+                (TransactionLogPosition) request.obj);
+        }
+    }
+
     protected void request(final Request request) {
-        while ((requestQueue.size() > limitDocumentQueuingNum || indexUpdater
-            .getQueuingItemNum() > limitTermQueuingNum)
-            && updateTask.isRunning()) {
-            try {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("waiting dequeue documents... doc:"
-                        + requestQueue.size() + " term:"
-                        + indexUpdater.getQueuingItemNum());
-                }
-                Thread.sleep(1000);
-            } catch (final Exception e) {
-                break;
-            }
+        if (logger.isDebugEnabled()
+            && flowController.getDocumentCredits() == 0) {
+            logger.debug("waiting dequeue documents... doc:"
+                + requestQueue.size() + " term:"
+                + indexUpdater.getQueuingItemNum());
+        }
+        try {
+            flowController.acquireDocument();
+            request.credited = true;
+        } catch (final InterruptedException e) {
+            // queued without a credit, so the consumer does not release one
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for " + request, e);
         }
 
+        // never blocks because requestQueue is unbounded
+        if (!requestQueue.offer(request)) {
+            logger.warn("Failed to add " + request);
+        }
+    }
+
+    protected ExecutorService createTokenizeExecutor(final int threadNum) {
+        if (logger.isInfoEnabled()) {
+            logger.info("Starting " + threadNum + " tokenize threads.");
+        }
+        // a full work queue makes UpdateTask tokenize by itself,
+        // so the number of documents in memory stays bounded.
+        return new ThreadPoolExecutor(threadNum, threadNum, 0L,
+            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                threadNum * 2), new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "SuggestTokenizer-"
+                        + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Creates a task to reload the bad word file when it is updated. The
+     * task is checked at every COMMIT.
+     */
+    protected MonitoringTask createBadWordMonitoringTask() {
+        final Map<String, String> monitorArgs = new HashMap<String, String>();
+        monitorArgs.put("monitoringFile", SuggestConstants.BADWORD_FILENAME);
+        monitorArgs.put("monitoringPeriod", "0");
         try {
-            requestQueue.put(request);
+            return MonitoringUtil.createMonitoringTask(monitorArgs, loader,
+                new MonitoringTask.Callback() {
+                    @Override
+                    public void process() {
+                        badWordFilter = loadBadWordFilter();
+                    }
+                });
         } catch (final Exception e) {
-            logger.warn("Failed to add " + request, e);
+            logger.warn("Failed to monitor badword file.", e);
+            return null;
+        }
+    }
+
+    protected BadWordFilter loadBadWordFilter() {
+        try (final InputStream in = loader
+            .openConfig(SuggestConstants.BADWORD_FILENAME)) {
+            final boolean wildcard = config.isBadWordWildcard();
+            final BadWordFilter filter = BadWordFilter.load(in, wildcard);
+            if (logger.isInfoEnabled()) {
+                logger.info("Loaded " + filter.getRuleNum() + " bad words.");
+            }
+            final int wildcardRuleNum = filter.getWildcardRuleNum();
+            if (wildcardRuleNum > 0) {
+                if (!wildcard) {
+                    logger.warn(wildcardRuleNum
+                        + " bad words end with '*' and are matched exactly."
+                        + " Set badWordWildcard to true to use them as"
+                        + " prefix or substring rules.");
+                } else if (logger.isInfoEnabled()) {
+                    logger.info(wildcardRuleNum
+                        + " bad words are prefix or substring rules.");
+                }
+            }
+            return filter;
+        } catch (final IOException e) {
+            logger.warn("Failed to load badword file.", e);
+            return badWordFilter;
         }
     }
 
@@ -192,92 +347,109 @@ public class SuggestUpdateController {
     protected class UpdateTask extends Thread {
         protected AtomicBoolean running = new AtomicBoolean(false);
 
+        protected final Queue<Future<?>> addTaskQueue = new ArrayDeque<Future<?>>();
+
         @Override
         public void run() {
             running.set(true);
-            boolean updateBadWord = true;
-            Set<String> badWordSet = createBadWordSet();
+            try {
+                process();
+            } finally {
+                running.set(false);
+            }
+        }
+
+        protected void process() {
             while (running.get()) {
                 Request request;
                 try {
                     request = requestQueue.take();
-                    if (updateBadWord) {
-                        updateBadWord = false;
-                        badWordSet = createBadWordSet();
+                    if (request.credited) {
+                        flowController.releaseDocument();
                     }
                 } catch (final InterruptedException e) {
                     break;
                 }
 
-                switch (request.type) {
-                    case ADD:
-                        int count = 0;
-                        final long start = System.currentTimeMillis();
-                        for (final SuggestFieldInfo fieldInfo : suggestFieldInfoList) {
-                            final List<String> fieldNameList = fieldInfo
-                                .getFieldNameList();
-                            final TokenizerFactory tokenizerFactory = fieldInfo
-                                .getTokenizerFactory();
-                            final SuggestReadingConverter converter = fieldInfo
-                                .getSuggestReadingConverter();
-                            final SuggestNormalizer normalizer = fieldInfo
-                                .getSuggestNormalizer();
-                            final SolrInputDocument doc = (SolrInputDocument) request.obj;
-
-                            // create documentReader
-                            final DocumentReader reader = new DocumentReader(
-                                tokenizerFactory, converter, normalizer, doc,
-                                fieldNameList, labelFieldNameList,
-                                roleFieldNameList, config.getExpiresField(),
-                                config.getSegmentField(), badWordSet);
-                            SuggestItem item;
+                try {
+                    switch (request.type) {
+                        case ADD:
+                            final AddTask addTask = new AddTask(
+                                (SolrInputDocument) request.obj, badWordFilter);
+                            if (tokenizeExecutor == null) {
+                                addTask.run();
+                            } else {
+                                addTaskQueue.add(tokenizeExecutor
+                                    .submit(addTask));
+                                removeDoneAddTasks();
+                            }
+                            break;
+                        case COMMIT:
+                            waitForAddTasks();
+                            itemAggregator.flush();
+                            // the checkpoint is saved by commitApplied()
+                            pendingCommitQueue.add(request);
                             try {
-                                while ((item = reader.next()) != null) {
-                                    while (count % 10000 == 0
-                                        && indexUpdater.getQueuingItemNum() > limitTermQueuingNum
-                                        && isRunning()) {
-                                        Thread.sleep(1000);
-                                    }
-                                    indexUpdater.addSuggestItem(item);
-                                    count++;
-                                }
-                            } catch (final InterruptedException e) {
-                                logger.warn("updateTask is interrupted");
-                                break;
-                            } catch (final Exception e) {
-                                logger.warn("Failed to tokenize document.", e);
+                                indexUpdater.commit();
+                            } catch (final RuntimeException e) {
+                                pendingCommitQueue.remove(request);
+                                throw e;
                             }
-                        }
-                        if (logger.isDebugEnabled()) {
-                            logger.debug("updateTask finish add. took:"
-                                + (System.currentTimeMillis() - start)
-                                + " count: " + count);
-                        }
-                        break;
-                    case COMMIT:
-                        indexUpdater.commit();
-                        updateBadWord = true;
-                        break;
-                    case DELETE_BY_QUERY:
-                        final String deleteQuery = request.obj.toString();
-                        if (deleteQuery
-                                .indexOf(SuggestConstants.SuggestFieldNames.EXPIRES) == -1) {
-                            indexUpdater.deleteByQuery(deleteQuery + " NOT "
-                                    + SuggestConstants.SuggestFieldNames.SEGMENT
-                                    + ":" + SuggestConstants.SEGMENT_ELEVATE
-                                    + " NOT "
-                                    + SuggestConstants.SuggestFieldNames.SEGMENT
-                                    + ":" + SuggestConstants.SEGMENT_QUERY);
-                        } else {
-                            indexUpdater.deleteByQuery(deleteQuery);
-                        }
-                        break;
-                    default:
-                        break;
+                            if (badWordMonitoringTask != null) {
+                                badWordMonitoringTask.process();
+                            }
+                            break;
+                        case DELETE_BY_QUERY:
+                            waitForAddTasks();
+                            itemAggregator.flush();
+                            final String deleteQuery = request.obj.toString();
+                            if (deleteQuery
+                                    .indexOf(SuggestConstants.SuggestFieldNames.EXPIRES) == -1) {
+                                indexUpdater.deleteByQuery(deleteQuery + " NOT "
+                                        + SuggestConstants.SuggestFieldNames.SEGMENT
+                                        + ":" + SuggestConstants.SEGMENT_ELEVATE
+                                        + " NOT "
+                                        + SuggestConstants.SuggestFieldNames.SEGMENT
+                                        + ":" + SuggestConstants.SEGMENT_QUERY);
+                            } else {
+                                indexUpdater.deleteByQuery(deleteQuery);
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                } catch (final InterruptedException e) {
+                    logger.warn("updateTask is interrupted");
+                    break;
+                } catch (final RejectedExecutionException e) {
+                    logger.warn("Failed to add " + request, e);
+                } catch (final RuntimeException e) {
+                    logger.warn("Failed to process " + request, e);
+                }
+            }
+        }
+
+        /**
+         * Waits until all submitted ADD requests are tokenized, so that
+         * COMMIT and DELETE_BY_QUERY reach IndexUpdater in the requested order.
+         */
+        protected void waitForAddTasks() throws InterruptedException {
+            Future<?> future;
+            while ((future = addTaskQueue.poll()) != null) {
+                try {
+                    future.get();
+                } catch (final ExecutionException e) {
+                    logger.warn("Failed to tokenize document.", e.getCause());
                 }
             }
         }
 
+        protected void removeDoneAddTasks() {
+            while (!addTaskQueue.isEmpty() && addTaskQueue.peek().isDone()) {
+                addTaskQueue.poll();
+            }
+        }
+
         private void close() {
             running.set(false);
             interrupt();
@@ -287,19 +459,50 @@ public class SuggestUpdateController {
             return running.get();
         }
 
-        private Set<String> createBadWordSet() {
-            final Set<String> badWordSet = new HashSet<>();
-            String line;
-            try (final BufferedReader br = new BufferedReader(new InputStreamReader(
-                    loader.openConfig(SuggestConstants.BADWORD_FILENAME),
-                    "UTF-8"))) {
-                while ((line = br.readLine()) != null) {
-                    badWordSet.add(line.trim());
+    }
+
+    protected class AddTask implements Runnable {
+        protected final SolrInputDocument doc;
+
+        protected final BadWordFilter badWordFilter;
+
+        public AddTask(final SolrInputDocument doc,
+                       final BadWordFilter badWordFilter) {
+            this.doc = doc;
+            this.badWordFilter = badWordFilter;
+        }
+
+        @Override
+        public void run() {
+            int count = 0;
+            final long start = System.currentTimeMillis();
+            for (final SuggestFieldInfo fieldInfo : suggestFieldInfoList) {
+                // create documentReader
+                final DocumentReader reader = new DocumentReader(fieldInfo,
+                    doc, labelFieldNameList, roleFieldNameList,
+                    config.getExpiresField(), config.getSegmentField(),
+                    badWordFilter);
+                SuggestItem item;
+                try {
+                    while ((item = reader.next()) != null) {
+                        if (count % 10000 == 0) {
+                            flowController.awaitTermCapacity();
+                        }
+                        itemAggregator.add(item);
+                        count++;
+                    }
+                } catch (final InterruptedException e) {
+                    logger.warn("updateTask is interrupted");
+                    break;
+                } catch (final Exception e) {
+                    logger.warn("Failed to tokenize document.", e);
                 }
-            } catch (IOException e) {
-                logger.warn("Failed to load badword file.", e);
             }
-            return badWordSet;
+            if (logger.isDebugEnabled()) {
+                logger.debug("updateTask finish add. took:"
+                    + (System.currentTimeMillis() - start) + " count: "
+                    + count);
+            }
         }
     }
 
@@ -308,6 +511,9 @@ public class SuggestUpdateController {
 
         public Object obj;
 
+        /** true if a document credit was taken for this request */
+        public boolean credited;
+
         public Request(final RequestType type, final Object o) {
             this.type = type;
             obj = o;
@@ -320,10 +526,14 @@ public class SuggestUpdateController {
 
         protected AtomicBoolean isRunning = new AtomicBoolean(false);
 
-        protected BlockingQueue<File> transactionLogQueue = new LinkedBlockingQueue<File>();
+        protected BlockingQueue<TransactionLogPosition> transactionLogQueue = new LinkedBlockingQueue<TransactionLogPosition>();
 
         protected final TransactionLogParseListener listener;
 
+        protected File lastFile;
+
+        protected long lastPosition;
+
         public TransactionLogParseTask(
             final TransactionLogParseListener listener) {
             super();
@@ -336,7 +546,7 @@ public class SuggestUpdateController {
             interrupt();
         }
 
-        public void addTransactionLog(final File translog) {
+        public void addTransactionLog(final TransactionLogPosition translog) {
             try {
                 transactionLogQueue.put(translog);
             } catch (final Exception e) {
@@ -352,13 +562,13 @@ public class SuggestUpdateController {
 
             isRunning.set(true);
             while (isRunning.get()) {
-                File file;
-                TransactionLog translog;
+                TransactionLogPosition tlogPosition;
                 try {
-                    file = transactionLogQueue.take();
+                    tlogPosition = transactionLogQueue.take();
                 } catch (final InterruptedException e1) {
                     break;
                 }
+                final File file = tlogPosition.getFile();
                 if (!file.exists()) {
                     logger.warn(file.getAbsolutePath() + " doesn't exist.");
                     continue;
@@ -367,22 +577,16 @@ public class SuggestUpdateController {
                     logger.info("Loading... " + file.getAbsolutePath());
                 }
 
+                // a tlog is queued again when commits have no update
+                final long startPosition = Math.max(
+                    tlogPosition.getPosition(),
+                    file.equals(lastFile) ? lastPosition : 0);
+                final TransactionLogReader tlogReader;
                 try {
-                    translog = TransactionLogUtil
-                        .createSuggestTransactionLog(file, null, true);
-                } catch (Exception e) {
-                    logger.warn("Failed to create transactionLog instance. " + file.getAbsolutePath()
-                        , e);
-                    continue;
-                }
-
-                if (logger.isInfoEnabled()) {
-                    logger.info("Getting LogReader");
-                }
-                final TransactionLog.LogReader tlogReader = translog
-                    .getReader(0);
-                if (tlogReader == null) {
-                    logger.warn("Failed to get reader.");
+                    tlogReader = new TransactionLogReader(file, startPosition);
+                } catch (final IOException e) {
+                    logger.warn("Failed to open transaction log. "
+                        + file.getAbsolutePath(), e);
                     continue;
                 }
 
@@ -432,7 +636,8 @@ public class SuggestUpdateController {
                                 if (logger.isDebugEnabled()) {
                                     logger.debug("commit");
                                 }
-                                listener.commitCBK();
+                                listener.commitCBK(new TransactionLogPosition(
+                                    file, tlogReader.position()));
                                 break;
                             }
                             default:
@@ -443,8 +648,14 @@ public class SuggestUpdateController {
                         logger.warn("Unknown Operation.", e);
                     }
                 }
-                tlogReader.close();
-                translog.decref();
+                lastFile = file;
+                lastPosition = tlogReader.position();
+                try {
+                    tlogReader.close();
+                } catch (final IOException e) {
+                    logger.warn("Failed to close transaction log. "
+                        + file.getAbsolutePath(), e);
+                }
             }
         }
     }
@@ -454,6 +665,6 @@ public class SuggestUpdateController {
 
         void deleteByQueryCBK(String query);
 
-        void commitCBK();
+        void commitCBK(TransactionLogPosition position);
     }
 }
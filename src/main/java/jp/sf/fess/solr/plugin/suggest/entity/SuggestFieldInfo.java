@@ -16,11 +16,14 @@
 
 package jp.sf.fess.solr.plugin.suggest.entity;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.List;
 
 import jp.sf.fess.suggest.converter.SuggestReadingConverter;
 import jp.sf.fess.suggest.normalizer.SuggestNormalizer;
 
+import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.util.TokenizerFactory;
 
 public class SuggestFieldInfo {
@@ -32,6 +35,12 @@ public class SuggestFieldInfo {
 
     private final SuggestNormalizer suggestNormalizer;
 
+    private final ThreadLocal<Tokenizer> tokenizerLocal = new ThreadLocal<Tokenizer>();
+
+    private int maxFieldLength = 0;
+
+    private boolean streaming = false;
+
     public SuggestFieldInfo(final List<String> fieldNameList,
             final TokenizerFactory tokenizerFactory,
             final SuggestReadingConverter suggestReadingConverter,
@@ -50,6 +59,30 @@ public class SuggestFieldInfo {
         return tokenizerFactory;
     }
 
+    /**
+     * Returns a tokenizer for the current thread. The tokenizer is reused
+     * across documents, so it must be closed before the next call.
+     */
+    public Tokenizer getTokenizer(final Reader reader) throws IOException {
+        if (tokenizerFactory == null) {
+            return null;
+        }
+        Tokenizer tokenizer = tokenizerLocal.get();
+        if (tokenizer == null) {
+            tokenizer = tokenizerFactory.create(reader);
+            tokenizerLocal.set(tokenizer);
+        } else {
+            try {
+                tokenizer.setReader(reader);
+            } catch (final IllegalStateException e) {
+                // the previous document failed before close()
+                tokenizer.close();
+                tokenizer.setReader(reader);
+            }
+        }
+        return tokenizer;
+    }
+
     public SuggestReadingConverter getSuggestReadingConverter() {
         return suggestReadingConverter;
     }
@@ -57,4 +90,28 @@ public class SuggestFieldInfo {
     public SuggestNormalizer getSuggestNormalizer() {
         return suggestNormalizer;
     }
+
+    /**
+     * @return the max number of characters read from a field, or 0 for no
+     * limit
+     */
+    public int getMaxFieldLength() {
+        return maxFieldLength;
+    }
+
+    public void setMaxFieldLength(final int maxFieldLength) {
+        this.maxFieldLength = maxFieldLength;
+    }
+
+    /**
+     * @return true if field values are normalized and tokenized in chunks
+     * instead of as one string
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(final boolean streaming) {
+        this.streaming = streaming;
+    }
 }
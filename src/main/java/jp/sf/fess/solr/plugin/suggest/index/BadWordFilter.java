@@ -0,0 +1,187 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest.index;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.sf.fess.solr.plugin.util.AhoCorasickAutomaton;
+
+/**
+ * Immutable matcher of bad words compiled into automata. Each rule matches
+ * a word exactly. When wildcard rules are enabled, a rule is one of:
+ * <ul>
+ * <li>word : matches the word</li>
+ * <li>word* : matches words starting with word</li>
+ * <li>*word* : matches words containing word</li>
+ * </ul>
+ * Wildcard rules are disabled by default, because bad word files written
+ * for exact matching may have words ending with '*'.
+ */
+public class BadWordFilter {
+    public static final BadWordFilter EMPTY = new BadWordFilter(
+            new ArrayList<String>());
+
+    private static final byte EXACT = 1;
+
+    private static final byte PREFIX = 2;
+
+    private final AhoCorasickAutomaton wordAutomaton;
+
+    private final byte[] wordTypes;
+
+    private final AhoCorasickAutomaton substringAutomaton;
+
+    private final int ruleNum;
+
+    private final int wildcardRuleNum;
+
+    /**
+     * Creates a filter which matches each rule exactly.
+     */
+    public BadWordFilter(final Collection<String> rules) {
+        this(rules, false);
+    }
+
+    public BadWordFilter(final Collection<String> rules,
+            final boolean wildcard) {
+        final Map<String, Integer> wordMap = new HashMap<String, Integer>();
+        final List<String> wordList = new ArrayList<String>();
+        final List<Byte> typeList = new ArrayList<Byte>();
+        final List<String> substringList = new ArrayList<String>();
+        int wildcardNum = 0;
+        for (final String r : rules) {
+            final String rule = r.trim();
+            final int length = rule.length();
+            final boolean substring = length > 2 && rule.charAt(0) == '*'
+                    && rule.charAt(length - 1) == '*';
+            final boolean prefix = !substring && length > 1
+                    && rule.charAt(length - 1) == '*';
+            if (substring || prefix) {
+                wildcardNum++;
+            }
+            final String word;
+            final byte type;
+            if (wildcard && substring) {
+                substringList.add(rule.substring(1, length - 1));
+                continue;
+            } else if (wildcard && prefix) {
+                word = rule.substring(0, length - 1);
+                type = PREFIX;
+            } else if (length > 0) {
+                word = rule;
+                type = EXACT;
+            } else {
+                continue;
+            }
+
+            final Integer id = wordMap.get(word);
+            if (id == null) {
+                wordMap.put(word, wordList.size());
+                wordList.add(word);
+                typeList.add(type);
+            } else {
+                typeList.set(id, (byte) (typeList.get(id) | type));
+            }
+        }
+
+        wordAutomaton = AhoCorasickAutomaton.build(wordList);
+        wordTypes = new byte[typeList.size()];
+        for (int i = 0; i < wordTypes.length; i++) {
+            wordTypes[i] = typeList.get(i);
+        }
+        substringAutomaton = substringList.isEmpty() ? null
+                : AhoCorasickAutomaton.build(substringList);
+        ruleNum = wordList.size() + substringList.size();
+        wildcardRuleNum = wildcardNum;
+    }
+
+    /**
+     * Creates a filter from a UTF-8 stream which has one rule per line.
+     * Each rule matches a word exactly.
+     */
+    public static BadWordFilter load(final InputStream in) throws IOException {
+        return load(in, false);
+    }
+
+    /**
+     * Creates a filter from a UTF-8 stream which has one rule per line.
+     */
+    public static BadWordFilter load(final InputStream in,
+            final boolean wildcard) throws IOException {
+        final List<String> rules = new ArrayList<String>();
+        final BufferedReader br = new BufferedReader(new InputStreamReader(
+                in, "UTF-8"));
+        String line;
+        while ((line = br.readLine()) != null) {
+            rules.add(line);
+        }
+        return new BadWordFilter(rules, wildcard);
+    }
+
+    public boolean isBadWord(final String text) {
+        final int length = text.length();
+        int node = AhoCorasickAutomaton.ROOT;
+        int i = 0;
+        for (; i < length; i++) {
+            node = wordAutomaton.transition(node, text.charAt(i));
+            if (node < 0) {
+                break;
+            }
+            final int id = wordAutomaton.getPatternId(node);
+            if (id >= 0 && (wordTypes[id] & PREFIX) != 0) {
+                return true;
+            }
+        }
+        if (i == length && node >= 0) {
+            final int id = wordAutomaton.getPatternId(node);
+            if (id >= 0 && (wordTypes[id] & EXACT) != 0) {
+                return true;
+            }
+        }
+
+        if (substringAutomaton != null) {
+            int state = AhoCorasickAutomaton.ROOT;
+            for (int j = 0; j < length; j++) {
+                state = substringAutomaton.step(state, text.charAt(j));
+                if (substringAutomaton.hasOutput(state)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public int getRuleNum() {
+        return ruleNum;
+    }
+
+    /**
+     * @return the number of rules written as wildcard rules, whether or not
+     * wildcard rules are enabled
+     */
+    public int getWildcardRuleNum() {
+        return wildcardRuleNum;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest.index;
+
+import java.io.IOException;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.UpdateParams;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SolrServer which passes requests to another one and tells the listener
+ * when a commit has been applied. IndexUpdater sends the queued items and
+ * then the commit from its own thread, so the listener is called after the
+ * items queued before {@link jp.sf.fess.suggest.index.IndexUpdater#commit()}
+ * are committed to the suggest index.
+ */
+public class CommitNotifyingSolrServer extends SolrServer {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(CommitNotifyingSolrServer.class);
+
+    private final SolrServer server;
+
+    private final CommitListener listener;
+
+    public CommitNotifyingSolrServer(final SolrServer server,
+            final CommitListener listener) {
+        this.server = server;
+        this.listener = listener;
+    }
+
+    @Override
+    public NamedList<Object> request(final SolrRequest request)
+            throws SolrServerException, IOException {
+        final NamedList<Object> response = server.request(request);
+        if (isCommit(request)) {
+            try {
+                listener.onCommit();
+            } catch (final RuntimeException e) {
+                logger.warn("Failed to notify a commit.", e);
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public void shutdown() {
+        server.shutdown();
+    }
+
+    protected boolean isCommit(final SolrRequest request) {
+        final SolrParams params = request.getParams();
+        return params != null && params.getBool(UpdateParams.COMMIT, false);
+    }
+
+    public interface CommitListener {
+        /**
+         * Called after a commit has been applied to the suggest index.
+         */
+        void onCommit();
+    }
+}
@@ -18,11 +18,14 @@ package jp.sf.fess.solr.plugin.suggest.index;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
+import jp.sf.fess.solr.plugin.suggest.entity.SuggestFieldInfo;
 import jp.sf.fess.suggest.converter.SuggestReadingConverter;
 import jp.sf.fess.suggest.entity.SuggestItem;
 import jp.sf.fess.suggest.io.AccessibleStringReader;
@@ -51,6 +54,8 @@ public class DocumentReader {
 
     private final TokenizerFactory tokenizerFactory;
 
+    private final SuggestFieldInfo suggestFieldInfo;
+
     private final SuggestReadingConverter suggestReadingConverter;
 
     private final SuggestNormalizer suggestNormalizer;
@@ -63,7 +68,15 @@ public class DocumentReader {
 
     private final String segment;
 
-    private final Set<String> badWordSet;
+    private final List<String> labels;
+
+    private final List<String> roles;
+
+    private final BadWordFilter badWordFilter;
+
+    private final int maxFieldLength;
+
+    private final boolean streaming;
 
     private boolean hasNext = true;
 
@@ -75,6 +88,39 @@ public class DocumentReader {
             final List<String> targetLabelFields,
             final List<String> targetRoleFields, final String expiresField,
             final String segmentField, final Set<String> badWordSet) {
+        this(null, tokenizerFactory, suggestReadingConverter,
+                suggestNormalizer, solrInputDocument, targetFields,
+                targetLabelFields, targetRoleFields, expiresField,
+                segmentField, badWordSet == null ? BadWordFilter.EMPTY
+                        : new BadWordFilter(badWordSet));
+    }
+
+    /**
+     * Creates a reader which reuses the tokenizer of the current thread
+     * cached in suggestFieldInfo.
+     */
+    public DocumentReader(final SuggestFieldInfo suggestFieldInfo,
+            final SolrInputDocument solrInputDocument,
+            final List<String> targetLabelFields,
+            final List<String> targetRoleFields, final String expiresField,
+            final String segmentField, final BadWordFilter badWordFilter) {
+        this(suggestFieldInfo, suggestFieldInfo.getTokenizerFactory(),
+                suggestFieldInfo.getSuggestReadingConverter(),
+                suggestFieldInfo.getSuggestNormalizer(), solrInputDocument,
+                suggestFieldInfo.getFieldNameList(), targetLabelFields,
+                targetRoleFields, expiresField, segmentField, badWordFilter);
+    }
+
+    private DocumentReader(final SuggestFieldInfo suggestFieldInfo,
+            final TokenizerFactory tokenizerFactory,
+            final SuggestReadingConverter suggestReadingConverter,
+            final SuggestNormalizer suggestNormalizer,
+            final SolrInputDocument solrInputDocument,
+            final List<String> targetFields,
+            final List<String> targetLabelFields,
+            final List<String> targetRoleFields, final String expiresField,
+            final String segmentField, final BadWordFilter badWordFilter) {
+        this.suggestFieldInfo = suggestFieldInfo;
         this.solrInputDocument = solrInputDocument;
         this.targetFields = targetFields;
         this.targetLabelFields = targetLabelFields;
@@ -84,7 +130,14 @@ public class DocumentReader {
         this.segmentField = segmentField;
         this.suggestReadingConverter = suggestReadingConverter;
         this.suggestNormalizer = suggestNormalizer;
-        this.badWordSet = badWordSet;
+        this.badWordFilter = badWordFilter;
+        if (suggestFieldInfo != null) {
+            maxFieldLength = suggestFieldInfo.getMaxFieldLength();
+            streaming = suggestFieldInfo.isStreaming();
+        } else {
+            maxFieldLength = 0;
+            streaming = false;
+        }
 
         final Object expireObj = solrInputDocument.getFieldValue(expiresField);
         if (expireObj != null) {
@@ -99,6 +152,10 @@ public class DocumentReader {
         } else {
             segment = StringUtil.EMPTY;
         }
+
+        // read from the document once, not for every token
+        labels = getFieldValues(targetLabelFields);
+        roles = getFieldValues(targetRoleFields);
     }
 
     public SuggestItem next() throws IOException {
@@ -117,12 +174,13 @@ public class DocumentReader {
                     while (tokenizer.incrementToken()) {
                         final CharTermAttribute att = tokenizer
                                 .getAttribute(CharTermAttribute.class);
-                        final SuggestItem item = createSuggestItem(
-                                att.toString(), targetFields.get(fieldPos));
-                        if(!badWordSet.contains(item.getText())) {
-                            return item;
+                        final String text = att.toString();
+                        if (!badWordFilter.isBadWord(text)) {
+                            return createSuggestItem(text,
+                                    targetFields.get(fieldPos));
                         }
                     }
+                    tokenizer.end();
                     tokenizer.close();
                     tokenizer = null;
                     fieldPos++;
@@ -143,38 +201,13 @@ public class DocumentReader {
         item.setExpires(expire);
         item.setSegmentField(segmentField);
         item.setSegment(segment);
-        final List<String> labels = item.getLabels();
-        for (final String label : targetLabelFields) {
-            final SolrInputField field = solrInputDocument.getField(label);
-            if (field == null) {
-                continue;
-            }
-            final Collection<Object> valList = field.getValues();
-            if (valList == null || valList.isEmpty()) {
-                continue;
-            }
-
-            for (final Object val : valList) {
-                labels.add(val.toString());
-            }
-            break;
+        // SuggestItem of fess-suggest owns its label and role lists and has
+        // no setter for them, so the values are copied into every item
+        if (!labels.isEmpty()) {
+            item.getLabels().addAll(labels);
         }
-
-        final List<String> roles = item.getRoles();
-        for (final String role : targetRoleFields) {
-            final SolrInputField field = solrInputDocument.getField(role);
-            if (field == null) {
-                continue;
-            }
-            final Collection<Object> valList = field.getValues();
-            if (valList == null || valList.isEmpty()) {
-                continue;
-            }
-
-            for (final Object val : valList) {
-                roles.add(val.toString());
-            }
-            break;
+        if (!roles.isEmpty()) {
+            item.getRoles().addAll(roles);
         }
 
         item.addFieldName(fieldName);
@@ -192,20 +225,53 @@ public class DocumentReader {
         return item;
     }
 
+    private List<String> getFieldValues(final List<String> fieldNames) {
+        for (final String fieldName : fieldNames) {
+            final SolrInputField field = solrInputDocument.getField(fieldName);
+            if (field == null) {
+                continue;
+            }
+            final Collection<Object> valList = field.getValues();
+            if (valList == null || valList.isEmpty()) {
+                continue;
+            }
+
+            final List<String> values = new ArrayList<String>(valList.size());
+            for (final Object val : valList) {
+                values.add(val.toString());
+            }
+            return Collections.unmodifiableList(values);
+        }
+        return Collections.emptyList();
+    }
+
     private Tokenizer createTokenizer() throws IOException {
-        final String nextFieldString = getNextFieldString();
-        if (nextFieldString == null) {
-            return null;
+        final Reader rd;
+        if (streaming) {
+            final Collection<Object> valList = getNextFieldValues();
+            if (valList == null) {
+                return null;
+            }
+            rd = new FieldValueReader(valList, suggestNormalizer,
+                    maxFieldLength);
+        } else {
+            final String nextFieldString = getNextFieldString();
+            if (nextFieldString == null) {
+                return null;
+            }
+            rd = new AccessibleStringReader(nextFieldString);
+        }
+        final Tokenizer t;
+        if (suggestFieldInfo != null) {
+            t = suggestFieldInfo.getTokenizer(rd);
+        } else {
+            t = tokenizerFactory.create(rd);
         }
-        final Reader rd = new AccessibleStringReader(nextFieldString);
-        final Tokenizer t = tokenizerFactory.create(rd); // TODO reuse?
         t.reset();
         return t;
     }
 
-    private String getNextFieldString() {
-        StringBuilder fieldValue = null;
-
+    private Collection<Object> getNextFieldValues() {
         for (; fieldPos < targetFields.size(); fieldPos++) {
             final String fieldName = targetFields.get(fieldPos);
             final SolrInputField field = solrInputDocument.getField(fieldName);
@@ -216,20 +282,27 @@ public class DocumentReader {
             if (valList == null || valList.isEmpty()) {
                 continue;
             }
-
-            fieldValue = new StringBuilder(1000);
-            for (final Object val : valList) {
-                fieldValue.append(val.toString());
-                fieldValue.append(' ');
-                // TODO break if a long text
-            }
-            break;
+            return valList;
         }
+        return null;
+    }
 
-        if (fieldValue == null) {
+    private String getNextFieldString() {
+        final Collection<Object> valList = getNextFieldValues();
+        if (valList == null) {
             return null;
         }
 
+        final StringBuilder fieldValue = new StringBuilder(1000);
+        for (final Object val : valList) {
+            fieldValue.append(val.toString());
+            fieldValue.append(' ');
+            if (maxFieldLength > 0 && fieldValue.length() >= maxFieldLength) {
+                fieldValue.setLength(maxFieldLength);
+                break;
+            }
+        }
+
         String nextFieldString = fieldValue.toString();
         if (suggestNormalizer != null) {
             nextFieldString = suggestNormalizer.normalize(nextFieldString);
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest.index;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.Iterator;
+
+import jp.sf.fess.suggest.normalizer.SuggestNormalizer;
+
+/**
+ * Reads the values of a field joined by a space, as
+ * DocumentReader#getNextFieldString() does, but normalizes them chunk by
+ * chunk so that a large value is never copied or normalized as a whole.
+ * Chunks are cut at a whitespace if possible.
+ */
+public class FieldValueReader extends Reader {
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private final Iterator<Object> values;
+
+    private final SuggestNormalizer suggestNormalizer;
+
+    private final int chunkSize;
+
+    private long remaining;
+
+    private String value;
+
+    private int valuePos;
+
+    private String chunk;
+
+    private int chunkPos;
+
+    /**
+     * @param maxLength the max number of characters to read from the
+     * values, or 0 or less for no limit
+     */
+    public FieldValueReader(final Collection<Object> values,
+            final SuggestNormalizer suggestNormalizer, final int maxLength) {
+        this(values, suggestNormalizer, maxLength, DEFAULT_CHUNK_SIZE);
+    }
+
+    public FieldValueReader(final Collection<Object> values,
+            final SuggestNormalizer suggestNormalizer, final int maxLength,
+            final int chunkSize) {
+        if (chunkSize < 2) {
+            throw new IllegalArgumentException("chunkSize must be 2 or more: "
+                    + chunkSize);
+        }
+        this.values = values.iterator();
+        this.suggestNormalizer = suggestNormalizer;
+        this.chunkSize = chunkSize;
+        remaining = maxLength > 0 ? maxLength : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int read(final char[] cbuf, final int off, final int len)
+            throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (chunk == null || chunkPos >= chunk.length()) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+        final int n = Math.min(len, chunk.length() - chunkPos);
+        chunk.getChars(chunkPos, chunkPos + n, cbuf, off);
+        chunkPos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        value = null;
+        chunk = null;
+        remaining = 0;
+    }
+
+    private boolean nextChunk() {
+        while (remaining > 0) {
+            if (value == null) {
+                if (!values.hasNext()) {
+                    return false;
+                }
+                value = values.next().toString();
+                valuePos = 0;
+            }
+
+            final int limit = (int) Math.min(chunkSize, remaining);
+            final String raw;
+            if (value.length() - valuePos < limit) {
+                raw = value.substring(valuePos) + ' ';
+                value = null;
+            } else {
+                final int end = findChunkEnd(valuePos, valuePos + limit);
+                raw = value.substring(valuePos, end);
+                valuePos = end;
+            }
+            remaining -= raw.length();
+
+            chunk = suggestNormalizer != null ? suggestNormalizer
+                    .normalize(raw) : raw;
+            chunkPos = 0;
+            if (chunk.length() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int findChunkEnd(final int start, final int end) {
+        final int min = Math.max(start + 1, end - chunkSize / 8);
+        for (int i = end; i > min; i--) {
+            if (Character.isWhitespace(value.charAt(i - 1))) {
+                return i;
+            }
+        }
+        if (end - 1 > start
+                && Character.isHighSurrogate(value.charAt(end - 1))) {
+            return end - 1;
+        }
+        return end;
+    }
+}
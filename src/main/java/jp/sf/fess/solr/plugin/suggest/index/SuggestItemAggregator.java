@@ -0,0 +1,211 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest.index;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import jp.sf.fess.suggest.entity.SuggestItem;
+import jp.sf.fess.suggest.index.IndexUpdater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges SuggestItems with the same text, readings, fields, labels, roles
+ * and segment by adding up their counts, and passes the merged items to
+ * IndexUpdater when windowSize distinct items are buffered or
+ * {@link #flush()} is called.
+ */
+public class SuggestItemAggregator {
+    private static final Logger logger = LoggerFactory
+            .getLogger(SuggestItemAggregator.class);
+
+    protected final IndexUpdater indexUpdater;
+
+    protected final int windowSize;
+
+    protected final ConcurrentMap<ItemKey, SuggestItem> itemMap = new ConcurrentHashMap<ItemKey, SuggestItem>();
+
+    protected final AtomicInteger itemNum = new AtomicInteger();
+
+    protected final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    protected final AtomicLong addedItemNum = new AtomicLong();
+
+    protected final AtomicLong flushedItemNum = new AtomicLong();
+
+    /**
+     * @param windowSize the max number of distinct items to buffer. Items
+     * are passed through when it is 0 or less.
+     */
+    public SuggestItemAggregator(final IndexUpdater indexUpdater,
+            final int windowSize) {
+        this.indexUpdater = indexUpdater;
+        this.windowSize = windowSize;
+    }
+
+    public void add(final SuggestItem item) {
+        addedItemNum.incrementAndGet();
+        if (windowSize <= 0) {
+            // add() is called from tokenize threads, so IndexUpdater is
+            // accessed under the same lock as flush()
+            lock.writeLock().lock();
+            try {
+                flushedItemNum.incrementAndGet();
+                indexUpdater.addSuggestItem(item);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return;
+        }
+
+        lock.readLock().lock();
+        try {
+            final SuggestItem current = itemMap.putIfAbsent(
+                    new ItemKey(item), item);
+            if (current == null) {
+                itemNum.incrementAndGet();
+            } else {
+                merge(current, item);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (itemNum.get() >= windowSize) {
+            flush(windowSize);
+        }
+    }
+
+    public void flush() {
+        flush(1);
+    }
+
+    protected void flush(final int minItemNum) {
+        lock.writeLock().lock();
+        try {
+            final int num = itemNum.get();
+            if (num < minItemNum) {
+                return;
+            }
+            for (final SuggestItem item : itemMap.values()) {
+                indexUpdater.addSuggestItem(item);
+            }
+            itemMap.clear();
+            itemNum.set(0);
+            flushedItemNum.addAndGet(num);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Flushed " + num + " items. added:"
+                        + addedItemNum.get() + " flushed:"
+                        + flushedItemNum.get());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    protected void merge(final SuggestItem current, final SuggestItem item) {
+        synchronized (current) {
+            current.setCount(current.getCount() + item.getCount());
+            final String expires = item.getExpires();
+            if (expires != null
+                    && (current.getExpires() == null || expires
+                            .compareTo(current.getExpires()) > 0)) {
+                current.setExpires(expires);
+            }
+        }
+    }
+
+    /**
+     * @return the number of items given to this aggregator
+     */
+    public long getAddedItemNum() {
+        return addedItemNum.get();
+    }
+
+    /**
+     * @return the number of items passed to IndexUpdater
+     */
+    public long getFlushedItemNum() {
+        return flushedItemNum.get();
+    }
+
+    protected static class ItemKey {
+        private final String text;
+
+        private final String segment;
+
+        private final List<String> readingList;
+
+        private final List<String> fieldNameList;
+
+        private final List<String> labels;
+
+        private final List<String> roles;
+
+        private final int hashCode;
+
+        ItemKey(final SuggestItem item) {
+            text = item.getText();
+            segment = item.getSegment();
+            readingList = item.getReadingList();
+            fieldNameList = item.getFieldNameList();
+            labels = item.getLabels();
+            roles = item.getRoles();
+
+            int result = 31 + (text == null ? 0 : text.hashCode());
+            result = 31 * result + (segment == null ? 0 : segment.hashCode());
+            result = 31 * result + readingList.hashCode();
+            result = 31 * result + fieldNameList.hashCode();
+            result = 31 * result + labels.hashCode();
+            result = 31 * result + roles.hashCode();
+            hashCode = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ItemKey)) {
+                return false;
+            }
+            final ItemKey other = (ItemKey) obj;
+            return hashCode == other.hashCode && equals(text, other.text)
+                    && equals(segment, other.segment)
+                    && readingList.equals(other.readingList)
+                    && fieldNameList.equals(other.fieldNameList)
+                    && labels.equals(other.labels)
+                    && roles.equals(other.roles);
+        }
+
+        private static boolean equals(final String s1, final String s2) {
+            return s1 == null ? s2 == null : s1.equals(s2);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest.index;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.common.util.DataInputInputStream;
+import org.apache.solr.common.util.FastInputStream;
+import org.apache.solr.common.util.JavaBinCodec;
+
+/**
+ * Reads records of a Solr transaction log through a read-only
+ * {@link FileChannel} with positional reads, so the live tlog does not need
+ * to be copied and reading can start from any record offset.
+ */
+public class TransactionLogReader implements Closeable {
+    protected final File file;
+
+    protected final FileChannel channel;
+
+    protected final ChannelInputStream fis;
+
+    protected final JavaBinCodec codec = new LogCodec();
+
+    protected final long startPosition;
+
+    protected List<String> globalStringList;
+
+    public TransactionLogReader(final File file, final long startPosition)
+            throws IOException {
+        this.file = file;
+        this.startPosition = startPosition;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        fis = new ChannelInputStream(channel, 0);
+    }
+
+    /**
+     * @return a record of the transaction log, or null if no complete record
+     * is available at the current position.
+     */
+    public Object next() throws IOException {
+        if (globalStringList == null) {
+            if (channel.size() == 0) {
+                return null;
+            }
+            try {
+                readHeader();
+            } catch (final EOFException e) {
+                // the header is being written
+                globalStringList = null;
+                return null;
+            }
+        }
+
+        final long pos = fis.position();
+        if (pos >= channel.size()) {
+            return null;
+        }
+
+        try {
+            final Object o = codec.readVal(fis);
+            final int size = fis.readInt();
+            if (size != fis.position() - pos - 4) {
+                throw new IOException("Invalid record size " + size + " at "
+                        + pos + " in " + file.getAbsolutePath());
+            }
+            return o;
+        } catch (final EOFException e) {
+            // the record is being written
+            fis.seek(pos);
+            return null;
+        }
+    }
+
+    /**
+     * @return the offset of the next record
+     */
+    public long position() {
+        return fis.position();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void readHeader() throws IOException {
+        fis.seek(0);
+        final Map<String, Object> header = (Map<String, Object>) codec
+                .unmarshal(fis);
+        fis.readInt(); // skip size
+        globalStringList = (List<String>) header.get("strings");
+        if (startPosition > fis.position()) {
+            fis.seek(startPosition);
+        }
+    }
+
+    protected class LogCodec extends JavaBinCodec {
+        @Override
+        public String readExternString(final DataInputInputStream in)
+                throws IOException {
+            final int idx = readSize(in);
+            if (idx != 0) {
+                if (globalStringList == null) {
+                    throw new IOException("No global strings in "
+                            + file.getAbsolutePath());
+                }
+                return globalStringList.get(idx - 1);
+            }
+            return (String) readVal(in);
+        }
+    }
+
+    protected static class ChannelInputStream extends FastInputStream {
+        private final FileChannel ch;
+
+        public ChannelInputStream(final FileChannel ch, final long position) {
+            super(null);
+            this.ch = ch;
+            readFromStream = position;
+        }
+
+        @Override
+        public int readWrappedStream(final byte[] target, final int offset,
+                final int len) throws IOException {
+            return ch.read(ByteBuffer.wrap(target, offset, len),
+                    readFromStream);
+        }
+
+        public void seek(final long position) {
+            final long bufferPos = readFromStream - end;
+            if (end > 0 && position <= readFromStream
+                    && position >= bufferPos) {
+                pos = (int) (position - bufferPos);
+            } else {
+                readFromStream = position;
+                end = pos = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            ch.close();
+        }
+    }
+}
@@ -172,6 +172,28 @@ public final class SolrConfigUtil {
             suggestUpdateConfig.setUpdateInterval(Long
                     .parseLong(updateInterval));
         }
+        final String tokenizeThreadNum = config.getVal(
+                "updateHandler/suggest/tokenizeThreadNum", false);
+        if (StringUtils.isNotBlank(tokenizeThreadNum)
+                && StringUtils.isNumeric(tokenizeThreadNum)) {
+            suggestUpdateConfig.setTokenizeThreadNum(Integer
+                    .parseInt(tokenizeThreadNum));
+        }
+
+        final String termAggregationSize = config.getVal(
+                "updateHandler/suggest/termAggregationSize", false);
+        if (StringUtils.isNotBlank(termAggregationSize)
+                && StringUtils.isNumeric(termAggregationSize)) {
+            suggestUpdateConfig.setTermAggregationSize(Integer
+                    .parseInt(termAggregationSize));
+        }
+
+        final String badWordWildcard = config.getVal(
+                "updateHandler/suggest/badWordWildcard", false);
+        if (StringUtils.isNotBlank(badWordWildcard)) {
+            suggestUpdateConfig.setBadWordWildcard(Boolean
+                    .parseBoolean(badWordWildcard.trim()));
+        }
 
         //set suggestFieldInfo
         final NodeList nodeList = config.getNodeList(
@@ -194,6 +216,20 @@ public final class SolrConfigUtil {
                         logger.info("fieldName : " + s);
                     }
                 }
+                final Node maxFieldLengthNode = fieldInfoAttributes
+                        .getNamedItem("maxFieldLength");
+                if (maxFieldLengthNode != null
+                        && StringUtils.isNumeric(maxFieldLengthNode
+                                .getNodeValue())) {
+                    fieldConfig.setMaxFieldLength(Integer
+                            .parseInt(maxFieldLengthNode.getNodeValue()));
+                }
+                final Node streamingNode = fieldInfoAttributes
+                        .getNamedItem("streaming");
+                if (streamingNode != null) {
+                    fieldConfig.setStreaming(Boolean
+                            .parseBoolean(streamingNode.getNodeValue()));
+                }
 
                 final NodeList fieldInfoChilds = fieldInfoNode.getChildNodes();
                 for (int j = 0; j < fieldInfoChilds.getLength(); j++) {
@@ -436,6 +472,9 @@ public final class SolrConfigUtil {
                 final SuggestFieldInfo suggestFieldInfo = new SuggestFieldInfo(
                         fieldNameList, tokenizerFactory,
                         suggestIntegrateConverter, suggestIntegrateNormalizer);
+                suggestFieldInfo.setMaxFieldLength(fieldConfig
+                        .getMaxFieldLength());
+                suggestFieldInfo.setStreaming(fieldConfig.isStreaming());
                 list.add(suggestFieldInfo);
             } catch (final Exception e) {
                 throw new FessSuggestException("Failed to create Tokenizer."
@@ -17,58 +17,49 @@
 package jp.sf.fess.solr.plugin.suggest.util;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.util.Collection;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import jp.sf.fess.solr.plugin.suggest.entity.TransactionLogPosition;
 
 import org.apache.solr.update.TransactionLog;
+import org.apache.solr.update.UpdateLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.io.Files;
-
 public final class TransactionLogUtil {
     private static final Logger logger = LoggerFactory
             .getLogger(TransactionLogUtil.class);
 
     private static final String PREFIX = "suggest-";
 
-    private static Constructor<TransactionLog> transactionLogConstructor;
+    public static final String CHECKPOINT_FILENAME = "suggest.checkpoint";
 
-    static {
-        try {
-            final Class<TransactionLog> cls = TransactionLog.class;
-            transactionLogConstructor = cls.getDeclaredConstructor(File.class,
-                    Collection.class, Boolean.TYPE);
-            transactionLogConstructor.setAccessible(true);
-        } catch (final Exception e) {
-            logger.error("Failed to load TransactionLog class.", e);
-        }
-    }
+    private static final String TLOG_PREFIX = UpdateLog.TLOG_NAME + ".";
 
-    private TransactionLogUtil() {
-    }
+    private static final String TLOG_KEY = "tlog";
 
-    public static TransactionLog createSuggestTransactionLog(
-            final File tlogFile, final Collection<String> globalStrings,
-            final boolean openExisting) throws NoSuchMethodException,
-            InstantiationException, IllegalAccessException, IOException,
-            InvocationTargetException {
-        final long start = System.currentTimeMillis();
-        final File file = new File(tlogFile.getParent(), PREFIX
-                + tlogFile.getName());
-        Files.copy(tlogFile, file);
-        if (logger.isInfoEnabled()) {
-            logger.info("Create suggest trans log. took="
-                    + (System.currentTimeMillis() - start) + " file="
-                    + file.getAbsolutePath());
-        }
+    private static final String POSITION_KEY = "position";
 
-        return transactionLogConstructor.newInstance(file, globalStrings,
-                openExisting);
+    private TransactionLogUtil() {
     }
 
+    /**
+     * Removes tlog copies created by older versions.
+     */
     public static void clearSuggestTransactionLog(final String dir) {
         final File d = new File(dir);
         if (!d.isDirectory()) {
@@ -80,4 +71,91 @@ public final class TransactionLogUtil {
             }
         }
     }
+
+    /**
+     * @return tlog files in the directory, ordered by their id
+     */
+    public static List<File> getTransactionLogFiles(final File dir) {
+        final List<File> fileList = new ArrayList<File>();
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return fileList;
+        }
+        for (final File f : files) {
+            if (f.isFile() && f.getName().startsWith(TLOG_PREFIX)) {
+                fileList.add(f);
+            }
+        }
+        // ids are zero-padded, so names sort in id order
+        Collections.sort(fileList);
+        return fileList;
+    }
+
+    public static boolean endsWithCommit(final File tlogFile)
+            throws IOException {
+        final byte[] endMessage = TransactionLog.END_MESSAGE
+                .getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(tlogFile.toPath(),
+                StandardOpenOption.READ)) {
+            // the end message and its 4 byte record size
+            final long pos = channel.size() - endMessage.length - 4;
+            if (pos < 0) {
+                return false;
+            }
+            final ByteBuffer buf = ByteBuffer.allocate(endMessage.length);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, pos + buf.position()) < 0) {
+                    return false;
+                }
+            }
+            return Arrays.equals(endMessage, buf.array());
+        }
+    }
+
+    public static TransactionLogPosition loadCheckpoint(
+            final File checkpointFile) {
+        if (!checkpointFile.isFile()) {
+            return null;
+        }
+        final Properties props = new Properties();
+        try (InputStream in = new FileInputStream(checkpointFile)) {
+            props.load(in);
+            final String tlogName = props.getProperty(TLOG_KEY);
+            final String position = props.getProperty(POSITION_KEY);
+            if (tlogName == null || position == null) {
+                logger.warn("Invalid checkpoint: "
+                        + checkpointFile.getAbsolutePath());
+                return null;
+            }
+            return new TransactionLogPosition(new File(
+                    checkpointFile.getParentFile(), tlogName),
+                    Long.parseLong(position));
+        } catch (final IOException | NumberFormatException e) {
+            logger.warn("Failed to load " + checkpointFile.getAbsolutePath(),
+                    e);
+            return null;
+        }
+    }
+
+    public static void saveCheckpoint(final File checkpointFile,
+            final TransactionLogPosition position) {
+        final Properties props = new Properties();
+        props.setProperty(TLOG_KEY, position.getFile().getName());
+        props.setProperty(POSITION_KEY,
+                Long.toString(position.getPosition()));
+        final File tempFile = new File(checkpointFile.getParentFile(),
+                checkpointFile.getName() + ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                props.store(out, null);
+                out.getFD().sync();
+            }
+            Files.move(tempFile.toPath(), checkpointFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            logger.warn("Failed to save " + checkpointFile.getAbsolutePath(),
+                    e);
+        }
+    }
 }
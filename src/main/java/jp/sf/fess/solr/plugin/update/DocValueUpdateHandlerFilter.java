@@ -18,16 +18,48 @@ package jp.sf.fess.solr.plugin.update;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.FieldInfo.DocValuesType;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.core.SolrConfig;
 import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.CommitUpdateCommand;
+import org.apache.solr.update.DeleteUpdateCommand;
+import org.apache.solr.update.MergeIndexesCommand;
+import org.apache.solr.update.RollbackUpdateCommand;
+import org.apache.solr.update.SplitIndexCommand;
 import org.apache.solr.util.RefCounted;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Updates DocValues in place for requests with excmd=update. Numeric and
+ * binary DocValues fields of the document are updated by the value of the
+ * term parameter field. Values are converted by the field types in the
+ * schema when the document is built. Sorted DocValues cannot be updated in
+ * place and are ignored.
+ * <p>
+ * If updateHandler/docValues/batchSize is greater than 0, updates are
+ * collected per term and field, keeping the last value. They are written
+ * to IndexWriter when batchSize updates are buffered, every
+ * updateHandler/docValues/flushInterval ms, and before any other operation
+ * so that the order of updates is kept.
+ * </p>
+ */
 public class DocValueUpdateHandlerFilter extends UpdateHandlerFilter {
+    private static final Logger logger = LoggerFactory
+            .getLogger(DocValueUpdateHandlerFilter.class);
 
     private static final String TERM_PARAM = "term";
 
@@ -35,6 +67,47 @@ public class DocValueUpdateHandlerFilter extends UpdateHandlerFilter {
 
     private static final String UPDATE_CMD = "update";
 
+    protected int batchSize = 0;
+
+    protected long flushInterval = 1000;
+
+    protected final Map<DocValueKey, Object> updateBuffer = new LinkedHashMap<DocValueKey, Object>();
+
+    protected ScheduledExecutorService flushScheduler;
+
+    @Override
+    public void setFessUpdateHandler(final FessUpdateHandler updateHandler) {
+        super.setFessUpdateHandler(updateHandler);
+
+        final SolrConfig solrConfig = updateHandler.getSolrCore()
+                .getSolrConfig();
+        batchSize = solrConfig.getInt("updateHandler/docValues/batchSize", 0);
+        flushInterval = solrConfig.getInt(
+                "updateHandler/docValues/flushInterval", (int) flushInterval);
+        if (batchSize > 0 && flushInterval > 0) {
+            flushScheduler = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread thread = new Thread(r,
+                                    "DocValueUpdateFlusher");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            flushScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (final Exception e) {
+                        logger.warn("Failed to flush DocValues updates.", e);
+                    }
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
     @Override
     public int addDoc(final AddUpdateCommand cmd,
             final UpdateHandlerFilterChain chain) throws IOException {
@@ -45,50 +118,243 @@ public class DocValueUpdateHandlerFilter extends UpdateHandlerFilter {
                 throw new IllegalArgumentException("term is not specified.");
             }
 
+            if (batchSize > 0) {
+                boolean full;
+                synchronized (updateBuffer) {
+                    addUpdates(cmd, termName, updateBuffer);
+                    full = updateBuffer.size() >= batchSize;
+                }
+                if (full) {
+                    flush();
+                }
+                return 1;
+            }
+
+            final Map<DocValueKey, Object> updates = new LinkedHashMap<DocValueKey, Object>();
+            addUpdates(cmd, termName, updates);
             int rc = -1;
             final RefCounted<IndexWriter> iw = updateHandler.getSolrCoreState()
                     .getIndexWriter(updateHandler.getSolrCore());
             try {
-                final IndexWriter writer = iw.get();
-
-                if (cmd.isBlock()) {
-                    for (final Iterable<? extends IndexableField> doc : cmd) {
-                        updateNumericValue(writer, doc, termName);
-                    }
-                } else {
-                    final Iterable<IndexableField> doc = cmd
-                            .getLuceneDocument();
-                    updateNumericValue(writer, doc, termName);
-                }
+                writeUpdates(iw.get(), updates);
                 rc = 1;
             } finally {
                 iw.decref();
             }
             return rc;
         } else {
+            flush();
             return chain.addDoc(cmd);
         }
     }
 
-    private void updateNumericValue(final IndexWriter writer,
-            final Iterable<? extends IndexableField> doc, final String termName)
-            throws IOException {
+    @Override
+    public void delete(final DeleteUpdateCommand cmd,
+            final UpdateHandlerFilterChain chain) throws IOException {
+        flush();
+        chain.delete(cmd);
+    }
+
+    @Override
+    public void deleteByQuery(final DeleteUpdateCommand cmd,
+            final UpdateHandlerFilterChain chain) throws IOException {
+        flush();
+        chain.deleteByQuery(cmd);
+    }
+
+    @Override
+    public int mergeIndexes(final MergeIndexesCommand cmd,
+            final UpdateHandlerFilterChain chain) throws IOException {
+        flush();
+        return chain.mergeIndexes(cmd);
+    }
+
+    @Override
+    public void prepareCommit(final CommitUpdateCommand cmd,
+            final UpdateHandlerFilterChain chain) throws IOException {
+        flush();
+        chain.prepareCommit(cmd);
+    }
+
+    @Override
+    public void commit(final CommitUpdateCommand cmd,
+            final UpdateHandlerFilterChain chain) throws IOException {
+        flush();
+        chain.commit(cmd);
+    }
+
+    @Override
+    public void rollback(final RollbackUpdateCommand cmd,
+            final UpdateHandlerFilterChain chain) throws IOException {
+        synchronized (updateBuffer) {
+            updateBuffer.clear();
+        }
+        chain.rollback(cmd);
+    }
+
+    @Override
+    public void split(final SplitIndexCommand cmd,
+            final UpdateHandlerFilterChain chain) throws IOException {
+        flush();
+        chain.split(cmd);
+    }
+
+    @Override
+    public void close(final UpdateHandlerFilterChain chain) throws IOException {
+        if (flushScheduler != null) {
+            flushScheduler.shutdownNow();
+        }
+        flush();
+        chain.close();
+    }
+
+    /**
+     * Writes the buffered updates to IndexWriter. Each update is removed
+     * from the buffer before it is written, and an update rejected by
+     * IndexWriter, such as one for a field which is not a DocValues field of
+     * the type in the index, is logged and dropped so that it does not fail
+     * later commands.
+     */
+    public void flush() throws IOException {
+        if (batchSize <= 0) {
+            return;
+        }
+        synchronized (updateBuffer) {
+            if (updateBuffer.isEmpty()) {
+                return;
+            }
+            final int size = updateBuffer.size();
+            final RefCounted<IndexWriter> iw = updateHandler.getSolrCoreState()
+                    .getIndexWriter(updateHandler.getSolrCore());
+            try {
+                final IndexWriter writer = iw.get();
+                final Iterator<Map.Entry<DocValueKey, Object>> it = updateBuffer
+                        .entrySet().iterator();
+                while (it.hasNext()) {
+                    final Map.Entry<DocValueKey, Object> entry = it.next();
+                    it.remove();
+                    final DocValueKey key = entry.getKey();
+                    try {
+                        writeUpdate(writer, key, entry.getValue());
+                    } catch (final RuntimeException e) {
+                        logger.warn("Failed to update DocValues of "
+                                + key.field + " for " + key.term, e);
+                    }
+                }
+            } finally {
+                iw.decref();
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Flushed " + size + " DocValues updates.");
+            }
+        }
+    }
+
+    private void addUpdates(final AddUpdateCommand cmd, final String termName,
+            final Map<DocValueKey, Object> updates) {
+        if (cmd.isBlock()) {
+            for (final Iterable<? extends IndexableField> doc : cmd) {
+                addDocValueUpdates(doc, termName, updates);
+            }
+        } else {
+            addDocValueUpdates(cmd.getLuceneDocument(), termName, updates);
+        }
+    }
+
+    private void addDocValueUpdates(
+            final Iterable<? extends IndexableField> doc,
+            final String termName, final Map<DocValueKey, Object> updates) {
         String termValue = null;
-        final List<IndexableField> numericFieldList = new ArrayList<IndexableField>();
+        final List<IndexableField> docValueFieldList = new ArrayList<IndexableField>();
         for (final IndexableField field : doc) {
             if (termName.equals(field.name()) && field.stringValue() != null) {
                 termValue = field.stringValue();
-            } else if (field instanceof NumericDocValuesField) {
-                numericFieldList.add(field);
+            } else if (field.fieldType().docValueType() != null) {
+                docValueFieldList.add(field);
             }
         }
         if (termValue == null) {
             throw new IllegalArgumentException(
                     "A value of term is not found in the doc.");
         }
-        for (final IndexableField field : numericFieldList) {
-            writer.updateNumericDocValue(new Term(termName, termValue),
-                    field.name(), field.numericValue().longValue());
+        for (final IndexableField field : docValueFieldList) {
+            final Object value = getDocValue(field);
+            if (value == null) {
+                continue;
+            }
+            final DocValueKey key = new DocValueKey(termName, termValue,
+                    field.name());
+            // the last update wins and is applied in its order
+            updates.remove(key);
+            updates.put(key, value);
+        }
+    }
+
+    /**
+     * Returns the value to update from a DocValues field created by the
+     * field type in the schema, or null if the field cannot be updated in
+     * place. Values of numeric fields such as float or date are already
+     * encoded into long by TrieField.
+     */
+    private Object getDocValue(final IndexableField field) {
+        final DocValuesType docValuesType = field.fieldType().docValueType();
+        switch (docValuesType) {
+        case NUMERIC:
+            return field.numericValue().longValue();
+        case BINARY:
+            // the bytes may be shared with the document
+            return BytesRef.deepCopyOf(field.binaryValue());
+        default:
+            if (logger.isDebugEnabled()) {
+                logger.debug(docValuesType + " DocValues of " + field.name()
+                        + " cannot be updated in place.");
+            }
+            return null;
+        }
+    }
+
+    private void writeUpdates(final IndexWriter writer,
+            final Map<DocValueKey, Object> updates) throws IOException {
+        for (final Map.Entry<DocValueKey, Object> entry : updates.entrySet()) {
+            writeUpdate(writer, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void writeUpdate(final IndexWriter writer, final DocValueKey key,
+            final Object value) throws IOException {
+        if (value instanceof BytesRef) {
+            writer.updateBinaryDocValue(key.term, key.field, (BytesRef) value);
+        } else {
+            writer.updateNumericDocValue(key.term, key.field, (Long) value);
+        }
+    }
+
+    protected static class DocValueKey {
+        final Term term;
+
+        final String field;
+
+        DocValueKey(final String termName, final String termValue,
+                final String field) {
+            term = new Term(termName, termValue);
+            this.field = field;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * term.hashCode() + field.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof DocValueKey)) {
+                return false;
+            }
+            final DocValueKey other = (DocValueKey) obj;
+            return term.equals(other.term) && field.equals(other.field);
         }
     }
 }
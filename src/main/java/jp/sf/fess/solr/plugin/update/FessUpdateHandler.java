@@ -20,6 +20,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import jp.sf.fess.solr.plugin.update.UpdateHandlerFilterChain.Operation;
+
 import org.apache.solr.core.SolrConfig;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.update.AddUpdateCommand;
@@ -37,6 +39,8 @@ public class FessUpdateHandler extends DirectUpdateHandler2 {
 
     protected UpdateHandlerFilter[] filters;
 
+    protected UpdateHandlerFilterChain[] chains;
+
     public FessUpdateHandler(final SolrCore core) {
         super(core);
         loadFilters();
@@ -87,13 +91,22 @@ public class FessUpdateHandler extends DirectUpdateHandler2 {
             filters = filterList.toArray(new UpdateHandlerFilter[filterList
                     .size()]);
         }
+
+        final Operation[] operations = Operation.values();
+        chains = new UpdateHandlerFilterChain[operations.length];
+        for (final Operation operation : operations) {
+            chains[operation.ordinal()] = UpdateHandlerFilterChain.create(
+                    this, filters, operation);
+        }
+    }
+
+    protected UpdateHandlerFilterChain getChain(final Operation operation) {
+        return chains[operation.ordinal()];
     }
 
     @Override
     public int addDoc(final AddUpdateCommand cmd) throws IOException {
-        final UpdateHandlerFilterChain chain = new UpdateHandlerFilterChain(
-                this, filters);
-        return chain.addDoc(cmd);
+        return getChain(Operation.ADD_DOC).addDoc(cmd);
     }
 
     protected int doAddDoc(final AddUpdateCommand cmd) throws IOException {
@@ -102,9 +115,7 @@ public class FessUpdateHandler extends DirectUpdateHandler2 {
 
     @Override
     public void delete(final DeleteUpdateCommand cmd) throws IOException {
-        final UpdateHandlerFilterChain chain = new UpdateHandlerFilterChain(
-                this, filters);
-        chain.delete(cmd);
+        getChain(Operation.DELETE).delete(cmd);
     }
 
     protected void doDelete(final DeleteUpdateCommand cmd) throws IOException {
@@ -113,9 +124,7 @@ public class FessUpdateHandler extends DirectUpdateHandler2 {
 
     @Override
     public void deleteByQuery(final DeleteUpdateCommand cmd) throws IOException {
-        final UpdateHandlerFilterChain chain = new UpdateHandlerFilterChain(
-                this, filters);
-        chain.deleteByQuery(cmd);
+        getChain(Operation.DELETE_BY_QUERY).deleteByQuery(cmd);
     }
 
     protected void doDeleteByQuery(final DeleteUpdateCommand cmd)
@@ -125,9 +134,7 @@ public class FessUpdateHandler extends DirectUpdateHandler2 {
 
     @Override
     public int mergeIndexes(final MergeIndexesCommand cmd) throws IOException {
-        final UpdateHandlerFilterChain chain = new UpdateHandlerFilterChain(
-                this, filters);
-        return chain.mergeIndexes(cmd);
+        return getChain(Operation.MERGE_INDEXES).mergeIndexes(cmd);
     }
 
     protected int doMergeIndexes(final MergeIndexesCommand cmd)
@@ -137,9 +144,7 @@ public class FessUpdateHandler extends DirectUpdateHandler2 {
 
     @Override
     public void prepareCommit(final CommitUpdateCommand cmd) throws IOException {
-        final UpdateHandlerFilterChain chain = new UpdateHandlerFilterChain(
-                this, filters);
-        chain.prepareCommit(cmd);
+        getChain(Operation.PREPARE_COMMIT).prepareCommit(cmd);
     }
 
     protected void doPrepareCommit(final CommitUpdateCommand cmd)
@@ -149,9 +154,7 @@ public class FessUpdateHandler extends DirectUpdateHandler2 {
 
     @Override
     public void commit(final CommitUpdateCommand cmd) throws IOException {
-        final UpdateHandlerFilterChain chain = new UpdateHandlerFilterChain(
-                this, filters);
-        chain.commit(cmd);
+        getChain(Operation.COMMIT).commit(cmd);
     }
 
     protected void doCommit(final CommitUpdateCommand cmd) throws IOException {
@@ -160,9 +163,7 @@ public class FessUpdateHandler extends DirectUpdateHandler2 {
 
     @Override
     public void rollback(final RollbackUpdateCommand cmd) throws IOException {
-        final UpdateHandlerFilterChain chain = new UpdateHandlerFilterChain(
-                this, filters);
-        chain.rollback(cmd);
+        getChain(Operation.ROLLBACK).rollback(cmd);
     }
 
     protected void doRollback(final RollbackUpdateCommand cmd)
@@ -172,9 +173,7 @@ public class FessUpdateHandler extends DirectUpdateHandler2 {
 
     @Override
     public void split(final SplitIndexCommand cmd) throws IOException {
-        final UpdateHandlerFilterChain chain = new UpdateHandlerFilterChain(
-                this, filters);
-        chain.split(cmd);
+        getChain(Operation.SPLIT).split(cmd);
     }
 
     protected void doSplit(final SplitIndexCommand cmd) throws IOException {
@@ -183,9 +182,7 @@ public class FessUpdateHandler extends DirectUpdateHandler2 {
 
     @Override
     public void close() throws IOException {
-        final UpdateHandlerFilterChain chain = new UpdateHandlerFilterChain(
-                this, filters);
-        chain.close();
+        getChain(Operation.CLOSE).close();
     }
 
     protected void doClose() throws IOException {
@@ -24,6 +24,7 @@ import java.util.Locale;
 import jp.sf.fess.solr.plugin.suggest.SuggestUpdateConfig;
 import jp.sf.fess.solr.plugin.suggest.SuggestUpdateController;
 import jp.sf.fess.solr.plugin.suggest.entity.SuggestFieldInfo;
+import jp.sf.fess.solr.plugin.suggest.entity.TransactionLogPosition;
 import jp.sf.fess.solr.plugin.suggest.util.SolrConfigUtil;
 import jp.sf.fess.solr.plugin.suggest.util.TransactionLogUtil;
 
@@ -49,7 +50,6 @@ public class SuggestTranslogUpdateHandlerFilter extends UpdateHandlerFilter {
         final SolrCore core = updateHandler.getSolrCore();
         final UpdateLog ulog = updateHandler.getUpdateLog();
 
-        //TODO replay?
         TransactionLogUtil.clearSuggestTransactionLog(ulog.getLogDir());
 
         final SuggestUpdateConfig config = SolrConfigUtil
@@ -69,8 +69,60 @@ public class SuggestTranslogUpdateHandlerFilter extends UpdateHandlerFilter {
             }
         }
         suggestUpdateController.setLimitDocumentQueuingNum(2);
+        final File logDir = new File(ulog.getLogDir());
+        final File checkpointFile = new File(logDir,
+                TransactionLogUtil.CHECKPOINT_FILENAME);
+        suggestUpdateController.setCheckpointFile(checkpointFile);
         suggestUpdateController.start();
 
+        replayTransactionLogs(logDir, checkpointFile);
+    }
+
+    /**
+     * Queues tlogs written after the checkpoint, so that updates which had
+     * not reached the suggest core before a shutdown are not lost.
+     */
+    protected void replayTransactionLogs(final File logDir,
+            final File checkpointFile) {
+        final List<File> tlogFileList = TransactionLogUtil
+                .getTransactionLogFiles(logDir);
+        final TransactionLogPosition checkpoint = TransactionLogUtil
+                .loadCheckpoint(checkpointFile);
+        if (checkpoint == null) {
+            // first startup: existing tlogs are regarded as processed
+            if (!tlogFileList.isEmpty()) {
+                final File lastFile = tlogFileList
+                        .get(tlogFileList.size() - 1);
+                TransactionLogUtil.saveCheckpoint(checkpointFile,
+                        new TransactionLogPosition(lastFile, lastFile
+                                .length()));
+            }
+            return;
+        }
+
+        final String checkpointName = checkpoint.getFile().getName();
+        for (final File file : tlogFileList) {
+            final int cmp = file.getName().compareTo(checkpointName);
+            if (cmp < 0 || cmp == 0
+                    && file.length() <= checkpoint.getPosition()) {
+                continue;
+            }
+            try {
+                if (!TransactionLogUtil.endsWithCommit(file)) {
+                    // UpdateLog replays an uncommitted tlog by itself
+                    continue;
+                }
+            } catch (final IOException e) {
+                logger.warn("Failed to check " + file.getAbsolutePath(), e);
+                continue;
+            }
+            final long position = cmp == 0 ? checkpoint.getPosition() : 0;
+            if (logger.isInfoEnabled()) {
+                logger.info("Replay " + file.getAbsolutePath() + " from "
+                        + position);
+            }
+            suggestUpdateController.addTransactionLog(file, position);
+        }
     }
 
     @Override
@@ -25,107 +25,149 @@ import org.apache.solr.update.MergeIndexesCommand;
 import org.apache.solr.update.RollbackUpdateCommand;
 import org.apache.solr.update.SplitIndexCommand;
 
+/**
+ * A node of a filter pipeline. Nodes are linked when FessUpdateHandler
+ * loads its filters and hold no state per call, so a chain is shared by
+ * all requests. {@link #create} links only the filters which override
+ * the operation.
+ */
 public class UpdateHandlerFilterChain {
-    FessUpdateHandler updateHandler;
+    private final FessUpdateHandler updateHandler;
 
-    private final UpdateHandlerFilter[] filters;
+    private final UpdateHandlerFilter filter;
 
-    private int position = 0;
+    private final UpdateHandlerFilterChain next;
 
-    public UpdateHandlerFilterChain(final FessUpdateHandler updateHandler,
-            final UpdateHandlerFilter[] filters) {
+    private UpdateHandlerFilterChain(final FessUpdateHandler updateHandler,
+            final UpdateHandlerFilter filter,
+            final UpdateHandlerFilterChain next) {
         this.updateHandler = updateHandler;
-        this.filters = filters;
+        this.filter = filter;
+        this.next = next;
+    }
+
+    /**
+     * Links the filters which override the method of operation, followed
+     * by FessUpdateHandler.
+     */
+    public static UpdateHandlerFilterChain create(
+            final FessUpdateHandler updateHandler,
+            final UpdateHandlerFilter[] filters, final Operation operation) {
+        UpdateHandlerFilterChain chain = new UpdateHandlerFilterChain(
+                updateHandler, null, null);
+        for (int i = filters.length - 1; i >= 0; i--) {
+            if (operation.isOverriddenBy(filters[i])) {
+                chain = new UpdateHandlerFilterChain(updateHandler,
+                        filters[i], chain);
+            }
+        }
+        return chain;
     }
 
     public int addDoc(final AddUpdateCommand cmd) throws IOException {
-        if (position < filters.length) {
-            final UpdateHandlerFilter filter = filters[position];
-            position++;
-            return filter.addDoc(cmd, this);
-        } else {
+        if (filter == null) {
             return updateHandler.doAddDoc(cmd);
         }
+        return filter.addDoc(cmd, next);
     }
 
     public void delete(final DeleteUpdateCommand cmd) throws IOException {
-        if (position < filters.length) {
-            final UpdateHandlerFilter filter = filters[position];
-            position++;
-            filter.delete(cmd, this);
-        } else {
+        if (filter == null) {
             updateHandler.doDelete(cmd);
+        } else {
+            filter.delete(cmd, next);
         }
     }
 
     public void deleteByQuery(final DeleteUpdateCommand cmd) throws IOException {
-        if (position < filters.length) {
-            final UpdateHandlerFilter filter = filters[position];
-            position++;
-            filter.deleteByQuery(cmd, this);
-        } else {
+        if (filter == null) {
             updateHandler.doDeleteByQuery(cmd);
+        } else {
+            filter.deleteByQuery(cmd, next);
         }
     }
 
     public int mergeIndexes(final MergeIndexesCommand cmd) throws IOException {
-        if (position < filters.length) {
-            final UpdateHandlerFilter filter = filters[position];
-            position++;
-            return filter.mergeIndexes(cmd, this);
-        } else {
+        if (filter == null) {
             return updateHandler.doMergeIndexes(cmd);
         }
+        return filter.mergeIndexes(cmd, next);
     }
 
     public void prepareCommit(final CommitUpdateCommand cmd) throws IOException {
-        if (position < filters.length) {
-            final UpdateHandlerFilter filter = filters[position];
-            position++;
-            filter.prepareCommit(cmd, this);
-        } else {
+        if (filter == null) {
             updateHandler.doPrepareCommit(cmd);
+        } else {
+            filter.prepareCommit(cmd, next);
         }
     }
 
     public void commit(final CommitUpdateCommand cmd) throws IOException {
-        if (position < filters.length) {
-            final UpdateHandlerFilter filter = filters[position];
-            position++;
-            filter.commit(cmd, this);
-        } else {
+        if (filter == null) {
             updateHandler.doCommit(cmd);
+        } else {
+            filter.commit(cmd, next);
         }
     }
 
     public void rollback(final RollbackUpdateCommand cmd) throws IOException {
-        if (position < filters.length) {
-            final UpdateHandlerFilter filter = filters[position];
-            position++;
-            filter.rollback(cmd, this);
-        } else {
+        if (filter == null) {
             updateHandler.doRollback(cmd);
+        } else {
+            filter.rollback(cmd, next);
         }
     }
 
     public void split(final SplitIndexCommand cmd) throws IOException {
-        if (position < filters.length) {
-            final UpdateHandlerFilter filter = filters[position];
-            position++;
-            filter.split(cmd, this);
-        } else {
+        if (filter == null) {
             updateHandler.doSplit(cmd);
+        } else {
+            filter.split(cmd, next);
         }
     }
 
     public void close() throws IOException {
-        if (position < filters.length) {
-            final UpdateHandlerFilter filter = filters[position];
-            position++;
-            filter.close(this);
-        } else {
+        if (filter == null) {
             updateHandler.doClose();
+        } else {
+            filter.close(next);
         }
     }
 
+    public enum Operation {
+        ADD_DOC("addDoc", AddUpdateCommand.class),
+        DELETE("delete", DeleteUpdateCommand.class),
+        DELETE_BY_QUERY("deleteByQuery", DeleteUpdateCommand.class),
+        MERGE_INDEXES("mergeIndexes", MergeIndexesCommand.class),
+        PREPARE_COMMIT("prepareCommit", CommitUpdateCommand.class),
+        COMMIT("commit", CommitUpdateCommand.class),
+        ROLLBACK("rollback", RollbackUpdateCommand.class),
+        SPLIT("split", SplitIndexCommand.class),
+        CLOSE("close");
+
+        private final String methodName;
+
+        private final Class<?>[] parameterTypes;
+
+        private Operation(final String methodName) {
+            this.methodName = methodName;
+            parameterTypes = new Class<?>[] { UpdateHandlerFilterChain.class };
+        }
+
+        private Operation(final String methodName, final Class<?> cmdClass) {
+            this.methodName = methodName;
+            parameterTypes = new Class<?>[] { cmdClass,
+                    UpdateHandlerFilterChain.class };
+        }
+
+        public boolean isOverriddenBy(final UpdateHandlerFilter filter) {
+            try {
+                return filter.getClass()
+                        .getMethod(methodName, parameterTypes)
+                        .getDeclaringClass() != UpdateHandlerFilter.class;
+            } catch (final NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
 }
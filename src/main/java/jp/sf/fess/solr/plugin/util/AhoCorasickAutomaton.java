@@ -0,0 +1,237 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable Aho-Corasick automaton over chars. The trie is stored in
+ * primitive arrays in breadth-first order, so the children of a node are
+ * consecutive and looked up by a binary search on their labels. A lookup
+ * costs O(text length * log(alphabet)) whatever the number of patterns.
+ */
+public final class AhoCorasickAutomaton {
+    public static final int ROOT = 0;
+
+    /** the label of the edge to each node */
+    private final char[] labels;
+
+    private final int[] firstChild;
+
+    private final int[] childCount;
+
+    private final int[] fail;
+
+    private final int[] patternIds;
+
+    private final int[] outputLinks;
+
+    private final int patternNum;
+
+    private AhoCorasickAutomaton(final char[] labels, final int[] firstChild,
+            final int[] childCount, final int[] fail, final int[] patternIds,
+            final int[] outputLinks, final int patternNum) {
+        this.labels = labels;
+        this.firstChild = firstChild;
+        this.childCount = childCount;
+        this.fail = fail;
+        this.patternIds = patternIds;
+        this.outputLinks = outputLinks;
+        this.patternNum = patternNum;
+    }
+
+    /**
+     * Builds an automaton whose pattern ids are the indexes in the list.
+     * Duplicated patterns are reported with the id of the first one.
+     */
+    public static AhoCorasickAutomaton build(final List<String> patterns) {
+        final int size = patterns.size();
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            final String pattern = patterns.get(i);
+            if (pattern == null || pattern.length() == 0) {
+                throw new IllegalArgumentException("Empty pattern at " + i);
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer o1, final Integer o2) {
+                final int ret = patterns.get(o1).compareTo(patterns.get(o2));
+                return ret != 0 ? ret : o1.compareTo(o2);
+            }
+        });
+        final String[] sorted = new String[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = patterns.get(order[i]);
+        }
+
+        // each node covers sorted[lo, hi) which share a prefix of depth chars
+        int capacity = Math.max(16, size);
+        char[] labels = new char[capacity];
+        int[] parents = new int[capacity];
+        int[] los = new int[capacity];
+        int[] his = new int[capacity];
+        int[] depths = new int[capacity];
+        int[] firstChild = new int[capacity];
+        int[] childCount = new int[capacity];
+        int[] patternIds = new int[capacity];
+        his[ROOT] = size;
+        int nodeCount = 1;
+        for (int n = 0; n < nodeCount; n++) {
+            final int hi = his[n];
+            final int depth = depths[n];
+            int i = los[n];
+            patternIds[n] = -1;
+            while (i < hi && sorted[i].length() == depth) {
+                if (patternIds[n] < 0) {
+                    patternIds[n] = order[i];
+                }
+                i++;
+            }
+
+            firstChild[n] = nodeCount;
+            while (i < hi) {
+                final char c = sorted[i].charAt(depth);
+                int j = i + 1;
+                while (j < hi && sorted[j].charAt(depth) == c) {
+                    j++;
+                }
+                if (nodeCount == capacity) {
+                    capacity = capacity + (capacity >> 1);
+                    labels = Arrays.copyOf(labels, capacity);
+                    parents = Arrays.copyOf(parents, capacity);
+                    los = Arrays.copyOf(los, capacity);
+                    his = Arrays.copyOf(his, capacity);
+                    depths = Arrays.copyOf(depths, capacity);
+                    firstChild = Arrays.copyOf(firstChild, capacity);
+                    childCount = Arrays.copyOf(childCount, capacity);
+                    patternIds = Arrays.copyOf(patternIds, capacity);
+                }
+                labels[nodeCount] = c;
+                parents[nodeCount] = n;
+                los[nodeCount] = i;
+                his[nodeCount] = j;
+                depths[nodeCount] = depth + 1;
+                nodeCount++;
+                i = j;
+            }
+            childCount[n] = nodeCount - firstChild[n];
+        }
+
+        final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(
+                Arrays.copyOf(labels, nodeCount), Arrays.copyOf(firstChild,
+                        nodeCount), Arrays.copyOf(childCount, nodeCount),
+                new int[nodeCount], Arrays.copyOf(patternIds, nodeCount),
+                new int[nodeCount], size);
+
+        // parents precede their children in breadth-first order
+        final int[] fail = automaton.fail;
+        final int[] outputLinks = automaton.outputLinks;
+        outputLinks[ROOT] = -1;
+        for (int v = 1; v < nodeCount; v++) {
+            final int p = parents[v];
+            int f = ROOT;
+            if (p != ROOT) {
+                f = fail[p];
+                while (true) {
+                    final int g = automaton.transition(f, labels[v]);
+                    if (g >= 0) {
+                        f = g;
+                        break;
+                    }
+                    if (f == ROOT) {
+                        break;
+                    }
+                    f = fail[f];
+                }
+            }
+            fail[v] = f;
+            outputLinks[v] = automaton.patternIds[f] >= 0 ? f
+                    : outputLinks[f];
+        }
+        return automaton;
+    }
+
+    /**
+     * @return the child of node labeled c, or -1 if it does not exist
+     */
+    public int transition(final int node, final char c) {
+        int low = firstChild[node];
+        int high = low + childCount[node] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char label = labels[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the next state of the automaton, following failure links
+     */
+    public int step(int state, final char c) {
+        while (true) {
+            final int next = transition(state, c);
+            if (next >= 0) {
+                return next;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = fail[state];
+        }
+    }
+
+    /**
+     * @return the id of the pattern which ends at node, or -1
+     */
+    public int getPatternId(final int node) {
+        return patternIds[node];
+    }
+
+    /**
+     * @return the next node on the failure chain of node where a pattern
+     * ends, or -1
+     */
+    public int getOutputLink(final int node) {
+        return outputLinks[node];
+    }
+
+    /**
+     * @return true if any pattern ends at the current position of state
+     */
+    public boolean hasOutput(final int state) {
+        return patternIds[state] >= 0 || outputLinks[state] >= 0;
+    }
+
+    public int getPatternNum() {
+        return patternNum;
+    }
+
+    public int getNodeNum() {
+        return labels.length;
+    }
+}
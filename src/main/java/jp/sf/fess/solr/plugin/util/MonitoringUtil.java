@@ -104,39 +104,43 @@ public final class MonitoringUtil {
     public static MonitoringTask createMonitoringTask(
             final Map<String, String> monitorArgs, final ResourceLoader loader,
             final Callback callback) throws IOException {
-        final Target monitoringTarget;
         final String monitoringFilePath = monitorArgs.get(MONITORING_FILE);
+        final Target monitoringTarget = createMonitoringTarget(loader,
+                monitoringFilePath);
+        final String monitoringPeriodStr = monitorArgs.get(MONITORING_PERIOD);
+        final long monitoringPeriod = monitoringPeriodStr == null ? MonitoringTask.DEFAULT_PERIOD
+                : Long.parseLong(monitoringPeriodStr);
+        if (VERBOSE) {
+            System.out.println("Create MonitoringFileTask(" + monitoringPeriod // NOSONAR
+                    + "ms) to monitor " + monitoringFilePath);
+        }
+
+        return new MonitoringTask(monitoringTarget, monitoringPeriod, callback);
+    }
+
+    public static Target createMonitoringTarget(final ResourceLoader loader,
+            final String monitoringFilePath) throws IOException {
         final File file = new File(monitoringFilePath);
         if (file.exists()) {
-            monitoringTarget = new Target() {
+            return new Target() {
                 @Override
                 public long lastModified() {
                     return file.lastModified();
                 }
             };
         } else if (loader instanceof ZkSolrResourceLoader) {
-            monitoringTarget = new ZkMonitoringTarget(loader,
-                    monitoringFilePath);
+            return new ZkMonitoringTarget(loader, monitoringFilePath);
         } else {
             final File targetFile = new File(
                     ((SolrResourceLoader) loader).getConfigDir(), // TODO
                     monitoringFilePath);
-            monitoringTarget = new Target() {
+            return new Target() {
                 @Override
                 public long lastModified() {
                     return targetFile.lastModified();
                 }
             };
         }
-        final String monitoringPeriodStr = monitorArgs.get(MONITORING_PERIOD);
-        final long monitoringPeriod = monitoringPeriodStr == null ? MonitoringTask.DEFAULT_PERIOD
-                : Long.parseLong(monitoringPeriodStr);
-        if (VERBOSE) {
-            System.out.println("Create MonitoringFileTask(" + monitoringPeriod // NOSONAR
-                    + "ms) to monitor " + monitoringFilePath);
-        }
-
-        return new MonitoringTask(monitoringTarget, monitoringPeriod, callback);
     }
 
     static boolean diff(final File file1, final File file2) {
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.analysis.synonym;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedSynonymDictionaryTest {
+    private static final String SYNONYMS = "a,aa\nb,bb,bbb\nab,xy\nあい,かき\n"
+            + "𠮷,吉\nABC,abcd\n";
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("synonyms", MappedSynonymDictionary.SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testWriteAndOpen() throws Exception {
+        final SynonymMap map = SynonymTestUtils.buildSynonymMap(SYNONYMS);
+        MappedSynonymDictionary.write(map, file);
+        final MappedSynonymDictionary dictionary = MappedSynonymDictionary
+                .open(file);
+        assertEquals(map.maxHorizontalContext,
+                dictionary.getMaxHorizontalContext());
+        assertEquals(map.words.size(), dictionary.getWordNum());
+
+        final SynonymDictionary.Matcher matcher = dictionary.newMatcher();
+        final BytesRef expected = new BytesRef();
+        final BytesRef actual = new BytesRef();
+        for (int ord = 0; ord < map.words.size(); ord++) {
+            map.words.get(ord, expected);
+            matcher.getWord(ord, actual);
+            assertEquals(expected, actual);
+        }
+
+        final SynonymDictionary heapDictionary = SynonymDictionary
+                .create(map);
+        for (final String text : new String[] { "xaby bbかきあいz",
+                "aabbab", "Abc ABCD abcde", "𠮷野家 吉野家",
+                "zzz", "" }) {
+            assertEquals(text,
+                    SynonymTestUtils.tokenize(heapDictionary, text),
+                    SynonymTestUtils.tokenize(dictionary, text));
+        }
+    }
+
+    @Test
+    public void testLongestMatch() throws Exception {
+        MappedSynonymDictionary.write(
+                SynonymTestUtils.buildSynonymMap(SYNONYMS), file);
+        final SynonymDictionary.Matcher matcher = MappedSynonymDictionary
+                .open(file).newMatcher();
+        final char[] src = "xabcd".toCharArray();
+        assertEquals(-1, matcher.longestMatch(src, 0, src.length, true));
+        assertEquals(5, matcher.longestMatch(src, 1, src.length, true));
+        assertEquals(3, matcher.longestMatch(src, 1, 3, true));
+        assertEquals(3, matcher.longestMatch(src, 2, src.length, true));
+        assertEquals(-1, matcher.longestMatch(src, 3, src.length, true));
+    }
+
+    @Test
+    public void testOpenInvalidFile() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        }
+        try {
+            MappedSynonymDictionary.open(file);
+            fail();
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+}
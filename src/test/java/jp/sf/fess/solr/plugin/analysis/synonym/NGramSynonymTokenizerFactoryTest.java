@@ -0,0 +1,320 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.analysis.synonym;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.synonym.SolrSynonymParser;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.apache.solr.core.SolrResourceLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NGramSynonymTokenizerFactoryTest {
+    private File instanceDir;
+
+    private File synonymFile;
+
+    private SolrResourceLoader loader;
+
+    @Before
+    public void setUp() throws IOException {
+        instanceDir = Files.createTempDirectory("ngram_synonym").toFile();
+        final File confDir = new File(instanceDir, "conf");
+        confDir.mkdirs();
+        synonymFile = new File(confDir, "synonyms.txt");
+        writeSynonyms("a,aa\n", System.currentTimeMillis() - 60000);
+        loader = new SolrResourceLoader(instanceDir.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        loader.close();
+        SynonymMapCache.clear();
+        for (final File file : synonymFile.getParentFile().listFiles()) {
+            file.delete();
+        }
+        synonymFile.getParentFile().delete();
+        instanceDir.delete();
+    }
+
+    @Test
+    public void testNoMonitoring() throws Exception {
+        final NGramSynonymTokenizerFactory factory = createFactory(null);
+        final Tokenizer tokenizer = factory.create(new StringReader(""));
+        assertEquals("a/aa/", tokenize(tokenizer, "a"));
+
+        writeSynonyms("a,ab\n", System.currentTimeMillis());
+        assertEquals("a/aa/", tokenize(tokenizer, "a"));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        final NGramSynonymTokenizerFactory factory = createFactory("1");
+        final Tokenizer tokenizer = factory.create(new StringReader(""));
+        assertEquals("a/aa/", tokenize(tokenizer, "a"));
+
+        writeSynonyms("a,ab\n", System.currentTimeMillis());
+        // reloaded on a background thread
+        String tokens = tokenize(tokenizer, "a");
+        for (int i = 0; i < 100 && !"a/ab/".equals(tokens); i++) {
+            Thread.sleep(100);
+            tokens = tokenize(tokenizer, "a");
+        }
+        assertEquals("a/ab/", tokens);
+        assertEquals("a/ab/",
+                tokenize(factory.create(new StringReader("")), "a"));
+    }
+
+    @Test
+    public void testReloadFailure() throws Exception {
+        final NGramSynonymTokenizerFactory factory = createFactory("1");
+        final Tokenizer tokenizer = factory.create(new StringReader(""));
+
+        // keeps the current synonyms
+        synonymFile.delete();
+        factory.reload(loader);
+        assertEquals("a/aa/", tokenize(tokenizer, "a"));
+    }
+
+    @Test
+    public void testBufferSize() throws Exception {
+        final Map<String, String> args = new HashMap<String, String>();
+        args.put("synonyms", "synonyms.txt");
+        args.put("bufferSize", "1");
+        final NGramSynonymTokenizerFactory factory = new NGramSynonymTokenizerFactory(
+                args);
+        factory.inform(loader);
+        assertEquals("a/aa/bc/", tokenize(
+                factory.create(new StringReader("")), " a bc "));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBufferSize() {
+        final Map<String, String> args = new HashMap<String, String>();
+        args.put("bufferSize", "0");
+        new NGramSynonymTokenizerFactory(args);
+    }
+
+    @Test
+    public void testPersistFst() throws Exception {
+        final NGramSynonymTokenizerFactory factory = createFactory(
+                "persistFst", "true");
+        final File fstFile = getPersistentFile(SynonymMapCache.FST_SUFFIX);
+        assertEquals("a/aa/",
+                tokenize(factory.create(new StringReader("")), "a"));
+
+        // read by a factory which does not share the map
+        SynonymMapCache.clear();
+        // in seconds for file systems without milliseconds
+        final long lastModified = (System.currentTimeMillis() - 60000)
+                / 1000 * 1000;
+        fstFile.setLastModified(lastModified);
+        final NGramSynonymTokenizerFactory factory2 = createFactory(
+                "persistFst", "true");
+        assertEquals(lastModified, fstFile.lastModified());
+        assertEquals("a/aa/",
+                tokenize(factory2.create(new StringReader("")), "a"));
+    }
+
+    @Test
+    public void testShareMap() throws Exception {
+        final NGramSynonymTokenizerFactory factory = createFactory(
+                "persistFst", "true");
+        final File fstFile = getPersistentFile(SynonymMapCache.FST_SUFFIX);
+
+        // the map of the first factory is used without building it again
+        assertTrue(fstFile.delete());
+        final NGramSynonymTokenizerFactory factory2 = createFactory(
+                "persistFst", "true");
+        assertFalse(fstFile.exists());
+        assertEquals(1, SynonymMapCache.getCachedMapNum());
+        assertEquals("a/aa/",
+                tokenize(factory.create(new StringReader("")), "a"));
+        assertEquals("a/aa/",
+                tokenize(factory2.create(new StringReader("")), "a"));
+    }
+
+    @Test
+    public void testDeleteStaleFiles() throws Exception {
+        createFactory("persistFst", "true");
+        final File fstFile = getPersistentFile(SynonymMapCache.FST_SUFFIX);
+        final File otherFile = new File(synonymFile.getParentFile(),
+                "synonyms.txt.fst");
+        assertTrue(otherFile.createNewFile());
+
+        writeSynonyms("a,ab\n", System.currentTimeMillis());
+        final NGramSynonymTokenizerFactory factory = createFactory(
+                "persistFst", "true");
+        assertFalse(fstFile.exists());
+        assertFalse(fstFile.equals(getPersistentFile(".fst")));
+        assertTrue(otherFile.exists());
+        assertEquals("a/ab/",
+                tokenize(factory.create(new StringReader("")), "a"));
+    }
+
+    @Test
+    public void testOffHeap() throws Exception {
+        final NGramSynonymTokenizerFactory factory = createFactory("offHeap",
+                "true");
+        final File dicFile = getPersistentFile(MappedSynonymDictionary.SUFFIX);
+        assertEquals("a/aa/",
+                tokenize(factory.create(new StringReader("")), "a"));
+
+        // the existing file is mapped without compiling synonyms again
+        SynonymMapCache.clear();
+        final long lastModified = (System.currentTimeMillis() - 60000)
+                / 1000 * 1000;
+        dicFile.setLastModified(lastModified);
+        final NGramSynonymTokenizerFactory factory2 = createFactory(
+                "offHeap", "true");
+        assertEquals(lastModified, dicFile.lastModified());
+        assertEquals("a/aa/",
+                tokenize(factory2.create(new StringReader("")), "a"));
+    }
+
+    @Test
+    public void testOffHeapInTempDir() throws Exception {
+        // synonyms which are not on the local file system
+        final String name = instanceDir.getName() + ".txt";
+        final byte[] synonyms = "a,aa\n".getBytes(Charset.forName("UTF-8"));
+        final ResourceLoader resourceLoader = new ResourceLoader() {
+            @Override
+            public InputStream openResource(final String resource)
+                    throws IOException {
+                if (!name.equals(resource)) {
+                    throw new IOException(resource + " is not found.");
+                }
+                return new ByteArrayInputStream(synonyms);
+            }
+
+            @Override
+            public <T> Class<? extends T> findClass(final String cname,
+                    final Class<T> expectedType) {
+                return loader.findClass(cname, expectedType);
+            }
+
+            @Override
+            public <T> T newInstance(final String cname,
+                    final Class<T> expectedType) {
+                return loader.newInstance(cname, expectedType);
+            }
+        };
+        final File dicFile = new File(System.getProperty("java.io.tmpdir"),
+                SynonymMapCache.getFileName(name, SynonymMapCache.createKey(
+                        Arrays.asList(synonyms),
+                        SolrSynonymParser.class.getName(), true),
+                        MappedSynonymDictionary.SUFFIX));
+        try {
+            final Map<String, String> args = new HashMap<String, String>();
+            args.put("synonyms", name);
+            args.put("offHeap", "true");
+            final NGramSynonymTokenizerFactory factory = new NGramSynonymTokenizerFactory(
+                    args);
+            factory.inform(resourceLoader);
+            assertTrue(dicFile.exists());
+            assertEquals("a/aa/",
+                    tokenize(factory.create(new StringReader("")), "a"));
+        } finally {
+            dicFile.delete();
+        }
+    }
+
+    private NGramSynonymTokenizerFactory createFactory(final String name,
+            final String value) throws IOException {
+        final Map<String, String> args = new HashMap<String, String>();
+        args.put("synonyms", "synonyms.txt");
+        args.put(name, value);
+        final NGramSynonymTokenizerFactory factory = new NGramSynonymTokenizerFactory(
+                args);
+        factory.inform(loader);
+        return factory;
+    }
+
+    /**
+     * @return the only synonyms.txt.&lt;hash&gt;&lt;suffix&gt; file next to
+     * the synonym file
+     */
+    private File getPersistentFile(final String suffix) {
+        final File[] files = synonymFile.getParentFile().listFiles(
+                new FilenameFilter() {
+                    @Override
+                    public boolean accept(final File dir, final String name) {
+                        return name.matches("synonyms\\.txt\\.[0-9a-f]{16}"
+                                + Pattern.quote(suffix));
+                    }
+                });
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private NGramSynonymTokenizerFactory createFactory(
+            final String monitoringPeriod) throws IOException {
+        final Map<String, String> args = new HashMap<String, String>();
+        args.put("synonyms", "synonyms.txt");
+        if (monitoringPeriod != null) {
+            args.put("monitoringPeriod", monitoringPeriod);
+        }
+        final NGramSynonymTokenizerFactory factory = new NGramSynonymTokenizerFactory(
+                args);
+        factory.inform(loader);
+        return factory;
+    }
+
+    private void writeSynonyms(final String synonyms, final long lastModified)
+            throws IOException {
+        try (OutputStream out = new FileOutputStream(synonymFile)) {
+            out.write(synonyms.getBytes(Charset.forName("UTF-8")));
+        }
+        synonymFile.setLastModified(lastModified);
+    }
+
+    private String tokenize(final Tokenizer tokenizer, final String text)
+            throws IOException {
+        final StringBuilder buf = new StringBuilder();
+        final CharTermAttribute termAttr = tokenizer
+                .getAttribute(CharTermAttribute.class);
+        tokenizer.setReader(new StringReader(text));
+        tokenizer.reset();
+        while (tokenizer.incrementToken()) {
+            buf.append(termAttr).append('/');
+        }
+        tokenizer.end();
+        tokenizer.close();
+        return buf.toString();
+    }
+}
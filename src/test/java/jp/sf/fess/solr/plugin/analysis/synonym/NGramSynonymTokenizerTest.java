@@ -42,9 +42,6 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.text.ParseException;
-import java.util.PriorityQueue;
-
-import jp.sf.fess.solr.plugin.analysis.synonym.NGramSynonymTokenizer.MyToken;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
@@ -52,6 +49,7 @@ import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.synonym.SolrSynonymParser;
 import org.apache.lucene.analysis.synonym.SynonymMap;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttributeImpl;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.junit.Test;
@@ -145,11 +143,26 @@ public class NGramSynonymTokenizerTest {
                 src2.substring(0, NGramSynonymTokenizer.BUFFER_SIZE - 2));
     }
 
+    @Test
+    public void testGetNextBlockWithBufferSize() throws Exception {
+        for (int bufferSize = 1; bufferSize <= 4; bufferSize++) {
+            final NGramSynonymTokenizer tokenizer = new NGramSynonymTokenizer(
+                    new StringReader(" ab  cde\tf　gh "),
+                    NGramSynonymTokenizer.DEFAULT_N_SIZE,
+                    NGramSynonymTokenizer.DEFAULT_DELIMITERS, false, true,
+                    bufferSize, (SynonymDictionary) null);
+            tokenizer.reset();
+            assertBlocks(tokenizer, "1,5,9,11", "ab", "cde", "f", "gh");
+            tokenizer.close();
+        }
+    }
+
     private NGramSynonymTokenizer getTokenizer(final String input)
             throws IOException {
         final NGramSynonymTokenizer tokenizer = new NGramSynonymTokenizer(
                 new StringReader(input), NGramSynonymTokenizer.DEFAULT_N_SIZE,
-                NGramSynonymTokenizer.DEFAULT_DELIMITERS, false, true, null);
+                NGramSynonymTokenizer.DEFAULT_DELIMITERS, false, true,
+                (SynonymDictionary) null);
         tokenizer.reset();
         return tokenizer;
     }
@@ -194,79 +207,150 @@ public class NGramSynonymTokenizerTest {
     }
 
     @Test
-    public void testMyTokensComparator() throws Exception {
-        final PriorityQueue<MyToken> pq = new PriorityQueue<MyToken>(10,
-                new NGramSynonymTokenizer.MyTokensComparator());
-
-        final MyToken t1 = new MyToken("", 10, 11, 1);
-        pq.add(t1);
-        final MyToken t2 = new MyToken("", 9, 11, 0);
-        pq.add(t2);
-        final MyToken t3 = new MyToken("", 9, 11, 1);
-        pq.add(t3);
-        final MyToken t4 = new MyToken("", 8, 11, 1);
-        pq.add(t4);
-        final MyToken t5 = new MyToken("", 7, 11, 1);
-        pq.add(t5);
-        final MyToken t6 = new MyToken("", 7, 10, 1);
-        pq.add(t6);
-
-        assertEquals(t6, pq.poll());
-        assertEquals(t5, pq.poll());
-        assertEquals(t4, pq.poll());
-        assertEquals(t3, pq.poll());
-        assertEquals(t2, pq.poll());
-        assertEquals(t1, pq.poll());
-        assertNull(pq.poll());
+    public void testTokenBufferOrder() throws Exception {
+        final NGramSynonymTokenizer tokenizer = getTokenizer("abcdefghijkl");
+        assertTrue(tokenizer.getNextBlock());
+        final NGramSynonymTokenizer.TokenBuffer tokens = tokenizer.tokens;
+
+        tokens.add("t1", 10, 11, 1, Integer.MAX_VALUE);
+        tokens.add("t2", 9, 11, 0, Integer.MAX_VALUE);
+        tokens.add("t3", 9, 11, 1, Integer.MAX_VALUE);
+        tokens.add("t4", 8, 11, 1, Integer.MAX_VALUE);
+        tokens.add("t5", 7, 11, 1, Integer.MAX_VALUE);
+        tokens.add("t6", 7, 10, 1, Integer.MAX_VALUE);
+        tokens.sort();
+
+        assertToken(tokens, "t6", 7, 10, 1);
+        assertToken(tokens, "t5", 7, 11, 1);
+        assertToken(tokens, "t4", 8, 11, 1);
+        assertToken(tokens, "t3", 9, 11, 1);
+        assertToken(tokens, "t2", 9, 11, 0);
+        assertToken(tokens, "t1", 10, 11, 1);
+        assertEquals(-1, tokens.nextUniqueToken());
+
+        // synonyms follow the original word in the order of seq, and
+        // n-grams come last
+        tokens.clear();
+        tokens.add(0, 2, 0);
+        tokens.add("s2", 0, 2, 0, 2);
+        tokens.add("s1", 0, 2, 0, 1);
+        tokens.add("ab", 0, 2, 1, 0);
+        tokens.sort();
+
+        assertToken(tokens, "ab", 0, 2, 1);
+        assertToken(tokens, "s1", 0, 2, 0);
+        assertToken(tokens, "s2", 0, 2, 0);
+        assertToken(tokens, "ab", 0, 2, 0);
+        assertEquals(-1, tokens.nextUniqueToken());
+
+        // the sort is stable for tokens equal in the order
+        tokens.clear();
+        tokens.add("s2", 0, 2, 0, 1);
+        tokens.add("s1", 0, 2, 0, 1);
+        tokens.sort();
+
+        assertToken(tokens, "s2", 0, 2, 0);
+        assertToken(tokens, "s1", 0, 2, 0);
+        assertEquals(-1, tokens.nextUniqueToken());
     }
 
     @Test
-    public void testMyTokenIdentical() throws Exception {
-        final MyToken t1 = new MyToken("token", 10, 11, 1);
-        final MyToken t2 = new MyToken("token", 10, 11, 1);
-        assertFalse(t1.identical(t2));
-        assertFalse(t2.identical(t2));
-        assertFalse(t2.identical(t1));
-
-        final MyToken t3 = new MyToken("token", 10, 11, 0);
-        assertTrue(t1.identical(t3));
-        assertFalse(t3.identical(t1));
-
-        final MyToken t4 = new MyToken("token", 10, 11, 0);
-        assertTrue(t1.identical(t4));
-        assertTrue(t3.identical(t4));
-        assertTrue(t4.identical(t3));
+    public void testTokenBufferIdentical() throws Exception {
+        final NGramSynonymTokenizer tokenizer = getTokenizer("abcdefghijkl");
+        assertTrue(tokenizer.getNextBlock());
+        final NGramSynonymTokenizer.TokenBuffer tokens = tokenizer.tokens;
+
+        // a token which moves the position is never skipped
+        tokens.add("token", 10, 11, 1, Integer.MAX_VALUE);
+        tokens.add("token", 10, 11, 1, Integer.MAX_VALUE);
+        tokens.sort();
+
+        assertToken(tokens, "token", 10, 11, 1);
+        assertToken(tokens, "token", 10, 11, 1);
+        assertEquals(-1, tokens.nextUniqueToken());
+
+        // stacked tokens with the same word and offsets are skipped
+        tokens.clear();
+        tokens.add("token", 10, 11, 1, Integer.MAX_VALUE);
+        tokens.add("token", 10, 11, 0, Integer.MAX_VALUE);
+        tokens.add("token", 10, 11, 0, Integer.MAX_VALUE);
+        tokens.sort();
+
+        assertToken(tokens, "token", 10, 11, 1);
+        assertEquals(-1, tokens.nextUniqueToken());
+
+        // a stacked token differing in the word or offsets is kept
+        tokens.clear();
+        tokens.add("token", 10, 11, 1, Integer.MAX_VALUE);
+        tokens.add("tokem", 10, 11, 0, Integer.MAX_VALUE);
+        tokens.add("token", 10, 12, 0, Integer.MAX_VALUE);
+        tokens.sort();
+
+        assertToken(tokens, "token", 10, 11, 1);
+        assertToken(tokens, "tokem", 10, 11, 0);
+        assertToken(tokens, "token", 10, 12, 0);
+        assertEquals(-1, tokens.nextUniqueToken());
+
+        // a stacked token is compared only with the previous one
+        tokens.clear();
+        tokens.add("token", 10, 11, 1, 0);
+        tokens.add("other", 10, 11, 0, 1);
+        tokens.add("token", 10, 11, 0, 2);
+        tokens.sort();
+
+        assertToken(tokens, "token", 10, 11, 1);
+        assertToken(tokens, "other", 10, 11, 0);
+        assertToken(tokens, "token", 10, 11, 0);
+        assertEquals(-1, tokens.nextUniqueToken());
     }
 
     @Test
-    public void testGetNextUniqueToken() throws Exception {
-        final PriorityQueue<MyToken> pq = new PriorityQueue<MyToken>(10,
-                new NGramSynonymTokenizer.MyTokensComparator());
-
-        final MyToken t1 = new MyToken("t1", 10, 11, 1);
-        pq.add(t1);
-        final MyToken t2 = new MyToken("t2", 9, 11, 0);
-        pq.add(t2);
-        final MyToken t3 = new MyToken("t3", 9, 11, 1);
-        pq.add(t3);
-        final MyToken t4 = new MyToken("t2", 9, 11, 0);
-        pq.add(t4);
-        final MyToken t5 = new MyToken("t5", 8, 11, 1);
-        pq.add(t5);
-        final MyToken t6 = new MyToken("t5", 8, 11, 0);
-        pq.add(t6);
-        final MyToken t7 = new MyToken("t7", 7, 11, 1);
-        pq.add(t7);
-        final MyToken t8 = new MyToken("t8", 7, 10, 1);
-        pq.add(t8);
-
-        assertEquals(t8, NGramSynonymTokenizer.getNextUniqueToken(pq, null));
-        assertEquals(t7, NGramSynonymTokenizer.getNextUniqueToken(pq, t8));
-        assertEquals(t5, NGramSynonymTokenizer.getNextUniqueToken(pq, t7));
-        assertEquals(t3, NGramSynonymTokenizer.getNextUniqueToken(pq, t5));
-        assertEquals(t2, NGramSynonymTokenizer.getNextUniqueToken(pq, t3));
-        assertEquals(t1, NGramSynonymTokenizer.getNextUniqueToken(pq, t2));
-        assertNull(NGramSynonymTokenizer.getNextUniqueToken(pq, t1));
+    public void testTokenBuffer() throws Exception {
+        final NGramSynonymTokenizer tokenizer = getTokenizer("abcdefghijkl");
+        assertTrue(tokenizer.getNextBlock());
+        final NGramSynonymTokenizer.TokenBuffer tokens = tokenizer.tokens;
+
+        // identical stacked tokens are skipped after sorting
+        tokens.add("t1", 10, 11, 1, Integer.MAX_VALUE);
+        tokens.add("t2", 9, 11, 0, Integer.MAX_VALUE);
+        tokens.add("t3", 9, 11, 1, Integer.MAX_VALUE);
+        tokens.add("t2", 9, 11, 0, Integer.MAX_VALUE);
+        tokens.add("t5", 8, 11, 1, Integer.MAX_VALUE);
+        tokens.add("t5", 8, 11, 0, Integer.MAX_VALUE);
+        tokens.add("t7", 7, 11, 1, Integer.MAX_VALUE);
+        tokens.add(7, 10, 1);
+        tokens.sort();
+
+        assertToken(tokens, "hij", 7, 10, 1);
+        assertToken(tokens, "t7", 7, 11, 1);
+        assertToken(tokens, "t5", 8, 11, 1);
+        assertToken(tokens, "t3", 9, 11, 1);
+        assertToken(tokens, "t2", 9, 11, 0);
+        assertToken(tokens, "t1", 10, 11, 1);
+        assertEquals(-1, tokens.nextUniqueToken());
+
+        // an n-gram of the block is identical to the same word
+        tokens.clear();
+        tokens.add(0, 2, 1);
+        tokens.add("ab", 0, 2, 0, Integer.MAX_VALUE);
+        tokens.add(0, 2, 0);
+        tokens.add("ab", 0, 2, 0, 1);
+        tokens.sort();
+        assertToken(tokens, "ab", 0, 2, 1);
+        assertEquals(-1, tokens.nextUniqueToken());
+    }
+
+    private void assertToken(final NGramSynonymTokenizer.TokenBuffer tokens,
+            final String word, final int startOffset, final int endOffset,
+            final int posInc) {
+        final int token = tokens.nextUniqueToken();
+        assertTrue(token >= 0);
+        final CharTermAttribute termAttr = new CharTermAttributeImpl();
+        tokens.copyWord(token, termAttr);
+        assertEquals(word, termAttr.toString());
+        assertEquals(startOffset, tokens.startOffsets[token]);
+        assertEquals(endOffset, tokens.endOffsets[token]);
+        assertEquals(posInc, tokens.posIncs[token]);
     }
 
     @Test
@@ -354,6 +438,42 @@ public class NGramSynonymTokenizerTest {
         assertTokenStream(stream, "aaa,0,3,1");
     }
 
+    @Test
+    public void testSingleSynonymIgnoreCaseExpand() throws Exception {
+        Analyzer a = new NGramSynonymTokenizerTestAnalyzer(1, true, "a,aa");
+        TokenStream stream = a.tokenStream("f", new StringReader("AA"));
+        stream.reset();
+        assertTokenStream(stream, "aa,0,2,1/a,0,2,0");
+
+        a = new NGramSynonymTokenizerTestAnalyzer(1, false, "a,aa");
+        stream = a.tokenStream("f", new StringReader("Aa"));
+        stream.reset();
+        assertTokenStream(stream, "aa,0,2,1");
+    }
+
+    @Test
+    public void testManySynonymsInBlock() throws Exception {
+        final StringBuilder block = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            block.append("ab");
+        }
+        // the second block starts after a delimiter
+        final StringBuilder expected = new StringBuilder();
+        for (final int base : new int[] { 0, block.length() + 1 }) {
+            for (int i = 0; i < 300; i++) {
+                expected.append("ab,").append(base + i * 2).append(',')
+                        .append(base + i * 2 + 2).append(",1/");
+            }
+        }
+        final Analyzer a = new NGramSynonymTokenizerTestAnalyzer(1, false,
+                "ab,xy");
+        final TokenStream stream = a.tokenStream("f", new StringReader(
+                block + " " + block));
+        stream.reset();
+        assertTokenStream(stream, expected.toString());
+        assertFalse(stream.incrementToken());
+    }
+
     @Test
     public void testSingleSynonymExpand() throws Exception {
         Analyzer a = new NGramSynonymTokenizerTestAnalyzer(1, true, "a,aa,aaa");
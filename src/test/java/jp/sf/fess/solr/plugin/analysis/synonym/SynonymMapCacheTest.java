@@ -0,0 +1,98 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.analysis.synonym;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.junit.After;
+import org.junit.Test;
+
+public class SynonymMapCacheTest {
+    private static final String SYNONYMS = "a,aa\nb,bb,bbb\nあい,かき\n";
+
+    @After
+    public void tearDown() {
+        SynonymMapCache.clear();
+    }
+
+    @Test
+    public void testCreateKey() {
+        final List<byte[]> contents = Arrays.asList(SYNONYMS
+                .getBytes(Charset.forName("UTF-8")));
+        final String key = SynonymMapCache.createKey(contents, "solr", true);
+        assertEquals(key, SynonymMapCache.createKey(contents, "solr", true));
+        assertFalse(key.equals(SynonymMapCache.createKey(contents, "solr",
+                false)));
+        assertFalse(key.equals(SynonymMapCache.createKey(contents,
+                "wordnet", true)));
+        assertFalse(key.equals(SynonymMapCache.createKey(
+                Arrays.asList("a,aa\n".getBytes(Charset.forName("UTF-8"))),
+                "solr", true)));
+    }
+
+    @Test
+    public void testGet() throws IOException {
+        final AtomicInteger count = new AtomicInteger();
+        final Callable<SynonymMap> builder = new Callable<SynonymMap>() {
+            @Override
+            public SynonymMap call() throws Exception {
+                count.incrementAndGet();
+                return SynonymTestUtils.buildSynonymMap(SYNONYMS);
+            }
+        };
+        final SynonymMap map1 = SynonymMapCache.get("key1", builder);
+        final SynonymMap map2 = SynonymMapCache.get("key1", builder);
+        assertSame(map1, map2);
+        assertEquals(1, count.get());
+
+        final SynonymMap map3 = SynonymMapCache.get("key2", builder);
+        assertNotSame(map1, map3);
+        assertEquals(2, count.get());
+        assertEquals(2, SynonymMapCache.getCachedMapNum());
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final SynonymMap map = SynonymTestUtils.buildSynonymMap(SYNONYMS);
+        final File file = File.createTempFile("synonyms", ".fst");
+        try {
+            SynonymMapCache.write(map, file);
+            final SynonymMap loadedMap = SynonymMapCache.read(file);
+            assertEquals(map.maxHorizontalContext,
+                    loadedMap.maxHorizontalContext);
+            assertEquals(map.words.size(), loadedMap.words.size());
+
+            final String text = "xaby bbかきあいz";
+            assertEquals(SynonymTestUtils.tokenize(map, text),
+                    SynonymTestUtils.tokenize(loadedMap, text));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.analysis.synonym;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.synonym.SolrSynonymParser;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+public class SynonymTestUtils {
+    private SynonymTestUtils() {
+    }
+
+    public static SynonymMap buildSynonymMap(final String synonyms)
+            throws IOException, ParseException {
+        final SolrSynonymParser parser = new SolrSynonymParser(true, true,
+                NGramSynonymTokenizerFactory.getAnalyzer(true));
+        parser.parse(new StringReader(synonyms));
+        return parser.build();
+    }
+
+    /**
+     * @return "term,startOffset,endOffset,positionIncrement/" for each
+     * token of text, tokenized by bigrams ignoring case
+     */
+    public static String tokenize(final SynonymDictionary dictionary,
+            final String text) throws IOException {
+        return tokenize(new NGramSynonymTokenizer(new StringReader(text), 2,
+                NGramSynonymTokenizer.DEFAULT_DELIMITERS, true, true,
+                dictionary));
+    }
+
+    public static String tokenize(final SynonymMap map, final String text)
+            throws IOException {
+        return tokenize(SynonymDictionary.create(map), text);
+    }
+
+    /**
+     * Consumes and closes tokenizer.
+     */
+    public static String tokenize(final Tokenizer tokenizer)
+            throws IOException {
+        final StringBuilder buf = new StringBuilder();
+        try {
+            final CharTermAttribute termAttr = tokenizer
+                    .getAttribute(CharTermAttribute.class);
+            final OffsetAttribute offsetAttr = tokenizer
+                    .getAttribute(OffsetAttribute.class);
+            final PositionIncrementAttribute posIncAttr = tokenizer
+                    .getAttribute(PositionIncrementAttribute.class);
+            tokenizer.reset();
+            while (tokenizer.incrementToken()) {
+                buf.append(termAttr).append(',')
+                        .append(offsetAttr.startOffset()).append(',')
+                        .append(offsetAttr.endOffset()).append(',')
+                        .append(posIncAttr.getPositionIncrement()).append('/');
+            }
+            tokenizer.end();
+        } finally {
+            tokenizer.close();
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.handler.component;
+
+import java.util.Arrays;
+import java.util.List;
+
+import jp.sf.fess.solr.plugin.suggest.TestUtils;
+import junit.framework.TestCase;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.LukeRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+
+public class DocValuesComponentTest extends TestCase {
+    private SolrServer server;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        TestUtils.startJerrySolrRunner();
+        server = new HttpSolrServer(TestUtils.SOLR_URL);
+        server.deleteByQuery("*:*");
+
+        // two segments
+        server.add(createDocument("1", 10L, "a", new String[] { "r2", "r1" },
+                null, new byte[] { 1, 2 }));
+        server.add(createDocument("2", 20L, "b", null, new Integer[] { 3, 1 },
+                null));
+        server.commit();
+        server.add(createDocument("3", null, "a", new String[] { "r2" },
+                null, null));
+        final SolrInputDocument doc = createDocument("4", 40L, null, null,
+                null, new byte[] { 3 });
+        // only in the second segment
+        doc.addField("size_i_x_dv", 5);
+        server.add(doc);
+        server.commit();
+
+        final NamedList<Object> indexInfo = new LukeRequest().process(server)
+                .getIndexInfo();
+        assertEquals(2, ((Number) indexInfo.get("segmentCount")).intValue());
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        server.deleteByQuery("*:*");
+        server.commit();
+        server.shutdown();
+        TestUtils.stopJettySolrRunner();
+        super.tearDown();
+    }
+
+    public void test_docValues() throws Exception {
+        // hits are not in doc id order
+        final NamedList<?> docValues = query("*:*");
+
+        final List<?> counts = (List<?>) docValues.get("count_l_x_dv");
+        assertEquals(Arrays.asList(40L, 0L, 20L, 10L), counts);
+        assertTrue(counts.get(0) instanceof Long);
+
+        final List<?> sizes = (List<?>) docValues.get("size_i_x_dv");
+        assertEquals(Arrays.asList(5L, 0L, 0L, 0L), sizes);
+
+        final List<?> labels = (List<?>) docValues.get("label_s_x_dv");
+        assertEquals(Arrays.asList(null, "a", "b", "a"), labels);
+
+        final List<?> roles = (List<?>) docValues.get("roles_ss_x_dv");
+        assertEquals(4, roles.size());
+        assertEquals(Arrays.asList(), roles.get(0));
+        assertEquals(Arrays.asList("r2"), roles.get(1));
+        assertEquals(Arrays.asList(), roles.get(2));
+        assertEquals(Arrays.asList("r1", "r2"), roles.get(3));
+
+        final List<?> nums = (List<?>) docValues.get("nums_is_x_dv");
+        assertEquals(Arrays.asList(), nums.get(0));
+        assertEquals(Arrays.asList(1, 3), nums.get(2));
+        assertTrue(((List<?>) nums.get(2)).get(0) instanceof Integer);
+
+        final List<?> data = (List<?>) docValues.get("data_b_x_dv");
+        assertEquals(4, data.size());
+        assertTrue(Arrays.equals(new byte[] { 3 }, (byte[]) data.get(0)));
+        assertNull(data.get(1));
+        assertNull(data.get(2));
+        assertTrue(Arrays.equals(new byte[] { 1, 2 }, (byte[]) data.get(3)));
+
+        assertNull(docValues.get("none_l_x_dv"));
+    }
+
+    public void test_emptyPage() throws Exception {
+        final NamedList<?> docValues = query("id:none");
+        assertEquals(Arrays.asList(), docValues.get("count_l_x_dv"));
+        assertEquals(Arrays.asList(), docValues.get("label_s_x_dv"));
+        assertEquals(Arrays.asList(), docValues.get("roles_ss_x_dv"));
+        assertEquals(Arrays.asList(), docValues.get("data_b_x_dv"));
+    }
+
+    private NamedList<?> query(final String q) throws Exception {
+        final SolrQuery query = new SolrQuery(q);
+        query.setSort("id", SolrQuery.ORDER.desc);
+        query.set("dcf", "count_l_x_dv", "size_i_x_dv", "label_s_x_dv",
+                "roles_ss_x_dv", "nums_is_x_dv", "data_b_x_dv", "none_l_x_dv");
+        return (NamedList<?>) server.query(query).getResponse()
+                .get("docValues");
+    }
+
+    private SolrInputDocument createDocument(final String id, final Long count,
+            final String label, final String[] roles, final Integer[] nums,
+            final byte[] data) {
+        final SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", id);
+        if (count != null) {
+            doc.addField("count_l_x_dv", count);
+        }
+        if (label != null) {
+            doc.addField("label_s_x_dv", label);
+        }
+        if (roles != null) {
+            for (final String role : roles) {
+                doc.addField("roles_ss_x_dv", role);
+            }
+        }
+        if (nums != null) {
+            for (final Integer num : nums) {
+                doc.addField("nums_is_x_dv", num);
+            }
+        }
+        if (data != null) {
+            doc.addField("data_b_x_dv", data);
+        }
+        return doc;
+    }
+}
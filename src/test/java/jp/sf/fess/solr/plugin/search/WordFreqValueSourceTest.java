@@ -0,0 +1,225 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import jp.sf.fess.solr.plugin.search.WordFreqValueSourceParser.WordFreqValueSource;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WordFreqValueSourceTest {
+    private static final String[] VALUES = new String[] { "a b a c a b",
+            "b c", "a b c a b" };
+
+    private final WhitespaceAnalyzer analyzer = new WhitespaceAnalyzer(
+            Version.LUCENE_4_10_0);
+
+    private RAMDirectory directory;
+
+    private DirectoryReader reader;
+
+    private final Map<Object, Object> context = new HashMap<Object, Object>();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        final IndexWriterConfig config = new IndexWriterConfig(
+                Version.LUCENE_4_10_0, analyzer);
+        try (final IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int i = 0; i < VALUES.length; i++) {
+                final Document doc = new Document();
+                doc.add(new TextField("content", VALUES[i], Field.Store.YES));
+                doc.add(new StoredField("stored", VALUES[i]));
+                writer.addDocument(doc);
+                if (i == 0) {
+                    // two segments
+                    writer.commit();
+                }
+            }
+        }
+        reader = DirectoryReader.open(directory);
+        assertEquals(2, reader.leaves().size());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testPostings() throws IOException {
+        assertFreqs(new int[] { 3, 0, 2 }, new WordFreqValueSource("content",
+                "A", true, analyzer));
+        assertFreqs(new int[] { 2, 1, 2 }, new WordFreqValueSource("content",
+                "b", true, analyzer));
+        assertFreqs(new int[] { 0, 0, 0 }, new WordFreqValueSource("content",
+                "d", true, analyzer));
+    }
+
+    @Test
+    public void testPostingsPhrase() throws IOException {
+        assertFreqs(new int[] { 2, 0, 2 }, new WordFreqValueSource("content",
+                "a b", true, analyzer));
+        assertFreqs(new int[] { 0, 1, 1 }, new WordFreqValueSource("content",
+                "b c", true, analyzer));
+    }
+
+    @Test
+    public void testSubstring() throws IOException {
+        assertFreqs(new int[] { 3, 0, 2 }, new WordFreqValueSource("content",
+                "A", true));
+        assertFreqs(new int[] { 2, 1, 2 }, new WordFreqValueSource("content",
+                "b", true));
+    }
+
+    @Test
+    public void testPostingsFallback() throws IOException {
+        // the field is not indexed
+        assertFreqs(new int[] { 2, 0, 2 }, new WordFreqValueSource("stored",
+                "a b", true, analyzer));
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        final WordFreqCache cache = new WordFreqCache(1024);
+        final WordFreqValueSource valueSource = new WordFreqValueSource(
+                "content", "a", true, analyzer);
+        valueSource.setCache(cache);
+        assertFreqs(new int[] { 3, 0, 2 }, valueSource);
+        assertEquals(2, cache.getEntryNum());
+
+        final WordFreqValueSource sameValueSource = new WordFreqValueSource(
+                "content", "a", true, analyzer);
+        sameValueSource.setCache(cache);
+        assertFreqs(new int[] { 3, 0, 2 }, sameValueSource);
+        assertEquals(2, cache.getEntryNum());
+
+        final WordFreqValueSource otherValueSource = new WordFreqValueSource(
+                "content", "b", true, analyzer);
+        otherValueSource.setCache(cache);
+        assertFreqs(new int[] { 2, 1, 2 }, otherValueSource);
+        assertEquals(4, cache.getEntryNum());
+
+        reader.close();
+        assertEquals(0, cache.getEntryNum());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testCacheEviction() throws IOException {
+        // room for one entry of a segment
+        final WordFreqCache cache = new WordFreqCache(100);
+        final WordFreqValueSource valueSource = new WordFreqValueSource(
+                "content", "a", true, analyzer);
+        valueSource.setCache(cache);
+        assertFreqs(new int[] { 3, 0, 2 }, valueSource);
+        final WordFreqValueSource otherValueSource = new WordFreqValueSource(
+                "content", "b", true, analyzer);
+        otherValueSource.setCache(cache);
+        assertFreqs(new int[] { 2, 1, 2 }, otherValueSource);
+        assertEquals(1, cache.getEntryNum());
+
+        final WordFreqCache.Entry entry = new WordFreqCache(100).getEntry(
+                reader.leaves().get(1).reader(), valueSource);
+        assertEquals(-1, entry.get(0));
+        entry.set(0, 1000);
+        entry.set(1, 0);
+        assertEquals(1000, entry.get(0));
+        assertEquals(0, entry.get(1));
+    }
+
+    @Test
+    public void testCacheOverflows() throws IOException {
+        final WordFreqValueSource valueSource = new WordFreqValueSource(
+                "content", "a", true, analyzer);
+        final WordFreqCache cache = new WordFreqCache(1024);
+        final WordFreqCache.Entry entry = cache.getEntry(reader.leaves()
+                .get(1).reader(), valueSource);
+        final long bytes = cache.getUsedBytes();
+        entry.set(0, 1000);
+        assertEquals(bytes + WordFreqCache.Entry.OVERFLOW_ENTRY_BYTES,
+                cache.getUsedBytes());
+        entry.set(0, 1000);
+        entry.set(1, 254);
+        assertEquals(bytes + 2 * WordFreqCache.Entry.OVERFLOW_ENTRY_BYTES,
+                cache.getUsedBytes());
+
+        reader.close();
+        assertEquals(0, cache.getEntryNum());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testCacheOverflowsEviction() throws IOException {
+        final WordFreqValueSource valueSource = new WordFreqValueSource(
+                "content", "a", true, analyzer);
+        // room for the entry, but not for an overflow
+        final WordFreqCache cache = new WordFreqCache(100);
+        final WordFreqCache.Entry entry = cache.getEntry(reader.leaves()
+                .get(1).reader(), valueSource);
+        assertEquals(1, cache.getEntryNum());
+        entry.set(0, 1000);
+        assertEquals(0, cache.getEntryNum());
+        assertEquals(0, cache.getUsedBytes());
+        assertEquals(1000, entry.get(0));
+    }
+
+    @Test
+    public void testEquals() {
+        assertFalse(new WordFreqValueSource("content", "a", true)
+                .equals(new WordFreqValueSource("content", "a", true, analyzer)));
+        assertEquals(new WordFreqValueSource("content", "a", true, analyzer),
+                new WordFreqValueSource("content", "a", true, analyzer));
+    }
+
+    private void assertFreqs(final int[] expected,
+            final WordFreqValueSource valueSource) throws IOException {
+        final int[] actual = new int[expected.length];
+        for (final AtomicReaderContext leaf : reader.leaves()) {
+            final FunctionValues values = valueSource.getValues(context, leaf);
+            final int maxDoc = leaf.reader().maxDoc();
+            for (int docId = 0; docId < maxDoc; docId++) {
+                actual[leaf.docBase + docId] = values.intVal(docId);
+            }
+        }
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(valueSource.description() + " of doc " + i,
+                    expected[i], actual[i]);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import jp.sf.fess.solr.plugin.search.WordFreqsValueSourceParser.WordFreqsValueSource;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queries.function.FunctionValues;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WordFreqsValueSourceTest {
+    private static final String[] VALUES = new String[] { "Search aaa",
+            "searchable searches", "none" };
+
+    private RAMDirectory directory;
+
+    private DirectoryReader reader;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        final IndexWriterConfig config = new IndexWriterConfig(
+                Version.LUCENE_4_10_0, new WhitespaceAnalyzer(
+                        Version.LUCENE_4_10_0));
+        try (final IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int i = 0; i < VALUES.length; i++) {
+                final Document doc = new Document();
+                doc.add(new TextField("content", VALUES[i], Field.Store.YES));
+                writer.addDocument(doc);
+                if (i == 0) {
+                    // two segments
+                    writer.commit();
+                }
+            }
+        }
+        reader = DirectoryReader.open(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testFloatVal() throws IOException {
+        assertScores(new float[] { 1, 2, 0 }, new WordFreqsValueSource(
+                "content", Arrays.asList("search"), Arrays.asList(1.0f)));
+        // non-overlapping as StringUtils.countMatches
+        assertScores(new float[] { 1, 0, 0 }, new WordFreqsValueSource(
+                "content", Arrays.asList("aa"), Arrays.asList(1.0f)));
+        assertScores(new float[] { 4, 5, 0 },
+                new WordFreqsValueSource("content", Arrays.asList("SEARCH",
+                        "aa", "es"), Arrays.asList(1.0f, 3.0f, 3.0f)));
+    }
+
+    @Test
+    public void testDuplicatedWords() throws IOException {
+        final WordFreqsValueSource valueSource = new WordFreqsValueSource(
+                "content", Arrays.asList("search", "Search"), Arrays.asList(
+                        1.0f, 2.0f));
+        assertScores(new float[] { 3, 6, 0 }, valueSource);
+        assertEquals(new WordFreqsValueSource("content",
+                Arrays.asList("search"), Arrays.asList(3.0f)), valueSource);
+        assertFalse(new WordFreqsValueSource("content",
+                Arrays.asList("search"), Arrays.asList(1.0f))
+                .equals(valueSource));
+    }
+
+    private void assertScores(final float[] expected,
+            final WordFreqsValueSource valueSource) throws IOException {
+        final Map<Object, Object> context = new HashMap<Object, Object>();
+        final float[] actual = new float[expected.length];
+        for (final AtomicReaderContext leaf : reader.leaves()) {
+            final FunctionValues values = valueSource.getValues(context, leaf);
+            final int maxDoc = leaf.reader().maxDoc();
+            for (int docId = 0; docId < maxDoc; docId++) {
+                actual[leaf.docBase + docId] = values.floatVal(docId);
+            }
+        }
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(valueSource.description() + " of doc " + i,
+                    expected[i], actual[i], 0.0001f);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+public class SuggestFlowControllerTest extends TestCase {
+    public void test_documentCredits() throws Exception {
+        final SuggestFlowController flowController = new SuggestFlowController(
+                new SuggestFlowController.TermCounter() {
+                    @Override
+                    public long getQueuingTermNum() {
+                        return 0;
+                    }
+                });
+        flowController.setLimitDocumentQueuingNum(2);
+        assertEquals(2, flowController.getDocumentCredits());
+
+        flowController.acquireDocument();
+        flowController.acquireDocument();
+        assertEquals(0, flowController.getDocumentCredits());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flowController.acquireDocument();
+                    latch.countDown();
+                } catch (final InterruptedException e) {
+                    // ignore
+                }
+            }
+        });
+        producer.start();
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+
+        flowController.releaseDocument();
+        assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+        assertEquals(0, flowController.getDocumentCredits());
+        assertEquals(1, flowController.getWaitCount());
+        assertTrue(flowController.getTotalWaitTime() >= 200);
+    }
+
+    public void test_termCredits() throws Exception {
+        final AtomicLong termNum = new AtomicLong(200);
+        final SuggestFlowController flowController = new SuggestFlowController(
+                new SuggestFlowController.TermCounter() {
+                    @Override
+                    public long getQueuingTermNum() {
+                        return termNum.get();
+                    }
+                });
+        flowController.setLimitTermQueuingNum(100);
+        flowController.setTermCheckInterval(10);
+        assertEquals(0, flowController.getTermCredits());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flowController.awaitTermCapacity();
+                    latch.countDown();
+                } catch (final InterruptedException e) {
+                    // ignore
+                }
+            }
+        });
+        producer.start();
+        assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+
+        termNum.set(50);
+        assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+        assertEquals(50, flowController.getTermCredits());
+    }
+
+    public void test_close() throws Exception {
+        final SuggestFlowController flowController = new SuggestFlowController(
+                new SuggestFlowController.TermCounter() {
+                    @Override
+                    public long getQueuingTermNum() {
+                        return 0;
+                    }
+                });
+        flowController.setLimitDocumentQueuingNum(1);
+        flowController.acquireDocument();
+        flowController.close();
+        flowController.acquireDocument();
+        assertEquals(0, flowController.getDocumentCredits());
+    }
+
+    public void test_consumerStopped() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final SuggestFlowController flowController = new SuggestFlowController(
+                new SuggestFlowController.TermCounter() {
+                    @Override
+                    public long getQueuingTermNum() {
+                        return 0;
+                    }
+                }, new SuggestFlowController.Consumer() {
+                    @Override
+                    public boolean isRunning() {
+                        return running.get();
+                    }
+                });
+        flowController.setLimitDocumentQueuingNum(1);
+        flowController.setTermCheckInterval(10);
+        flowController.acquireDocument();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flowController.acquireDocument();
+                    latch.countDown();
+                } catch (final InterruptedException e) {
+                    // ignore
+                }
+            }
+        });
+        producer.start();
+        assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+
+        // no releaseDocument() comes from a stopped consumer
+        running.set(false);
+        assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+
+        // a consumer which is not running does not block producers
+        flowController.acquireDocument();
+        assertEquals(0, flowController.getDocumentCredits());
+    }
+
+    public void test_interrupted() throws Exception {
+        final SuggestFlowController flowController = new SuggestFlowController(
+                new SuggestFlowController.TermCounter() {
+                    @Override
+                    public long getQueuingTermNum() {
+                        return 0;
+                    }
+                });
+        flowController.setLimitDocumentQueuingNum(2);
+        flowController.acquireDocument();
+        flowController.acquireDocument();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flowController.acquireDocument();
+                } catch (final InterruptedException e) {
+                    interrupted.set(true);
+                }
+                latch.countDown();
+            }
+        });
+        producer.start();
+        assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+
+        producer.interrupt();
+        assertTrue(latch.await(1000, TimeUnit.MILLISECONDS));
+        assertTrue(interrupted.get());
+        // no credit is taken by the interrupted producer
+        assertEquals(0, flowController.getDocumentCredits());
+
+        flowController.releaseDocument();
+        assertEquals(1, flowController.getDocumentCredits());
+        flowController.releaseDocument();
+        assertEquals(2, flowController.getDocumentCredits());
+
+        // the limit holds after the interrupt
+        flowController.acquireDocument();
+        flowController.acquireDocument();
+        assertEquals(0, flowController.getDocumentCredits());
+    }
+}
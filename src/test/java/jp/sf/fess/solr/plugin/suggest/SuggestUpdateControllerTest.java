@@ -24,6 +24,8 @@ import java.util.Date;
 import java.util.List;
 
 import jp.sf.fess.solr.plugin.suggest.entity.SuggestFieldInfo;
+import jp.sf.fess.solr.plugin.suggest.entity.TransactionLogPosition;
+import jp.sf.fess.solr.plugin.suggest.enums.RequestType;
 import jp.sf.fess.solr.plugin.suggest.util.TransactionLogUtil;
 import jp.sf.fess.suggest.SuggestConstants;
 import jp.sf.fess.suggest.Suggester;
@@ -110,6 +112,129 @@ public class SuggestUpdateControllerTest extends TestCase {
         }
     }
 
+    public void test_updateWithTokenizeThreads() {
+        final SuggestSolrServer suggestSolrServer = TestUtils
+                .createSuggestSolrServer();
+
+        try {
+            suggestSolrServer.deleteAll();
+            suggestSolrServer.commit();
+
+            final SuggestUpdateConfig config = TestUtils
+                    .getSuggestUpdateConfig();
+            config.setTokenizeThreadNum(4);
+            final SuggestUpdateController controller = new SuggestUpdateController(
+                    config, getSuggestFieldInfoList(config, false),
+                new SolrResourceLoader(SolrResourceLoader.locateSolrHome()));
+            controller.start();
+
+            for (int i = 0; i < 20; i++) {
+                final SolrInputDocument doc = new SolrInputDocument();
+                doc.setField("content", "みかん");
+                doc.setField(config.getExpiresField(), DateUtil
+                        .getThreadLocalDateFormat().format(new Date()));
+                controller.add(doc);
+            }
+            controller.commit();
+            Thread.sleep(5 * 1000);
+
+            final SolrDocumentList solrDocuments = suggestSolrServer
+                    .select("*:*");
+            assertEquals(1, solrDocuments.getNumFound());
+            assertEquals("20", solrDocuments.get(0)
+                    .getFieldValue(SuggestConstants.SuggestFieldNames.COUNT)
+                    .toString());
+
+            controller.close();
+        } catch (final Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void test_updateWithTokenizeThreadsWithoutAggregation() {
+        final SuggestSolrServer suggestSolrServer = TestUtils
+                .createSuggestSolrServer();
+
+        try {
+            suggestSolrServer.deleteAll();
+            suggestSolrServer.commit();
+
+            final SuggestUpdateConfig config = TestUtils
+                    .getSuggestUpdateConfig();
+            config.setTokenizeThreadNum(4);
+            config.setTermAggregationSize(0);
+            final SuggestUpdateController controller = new SuggestUpdateController(
+                    config, getSuggestFieldInfoList(config, false),
+                new SolrResourceLoader(SolrResourceLoader.locateSolrHome()));
+            controller.start();
+
+            for (int i = 0; i < 20; i++) {
+                final SolrInputDocument doc = new SolrInputDocument();
+                doc.setField("content", "みかん");
+                doc.setField(config.getExpiresField(), DateUtil
+                        .getThreadLocalDateFormat().format(new Date()));
+                controller.add(doc);
+            }
+            controller.commit();
+            Thread.sleep(5 * 1000);
+
+            final SolrDocumentList solrDocuments = suggestSolrServer
+                    .select("*:*");
+            assertEquals(1, solrDocuments.getNumFound());
+            assertEquals("20", solrDocuments.get(0)
+                    .getFieldValue(SuggestConstants.SuggestFieldNames.COUNT)
+                    .toString());
+
+            controller.close();
+        } catch (final Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    public void test_updateWithTermAggregation() {
+        final SuggestSolrServer suggestSolrServer = TestUtils
+                .createSuggestSolrServer();
+
+        try {
+            suggestSolrServer.deleteAll();
+            suggestSolrServer.commit();
+
+            final SuggestUpdateConfig config = TestUtils
+                    .getSuggestUpdateConfig();
+            config.setTermAggregationSize(2);
+            final SuggestUpdateController controller = new SuggestUpdateController(
+                    config, getSuggestFieldInfoList(config, false),
+                new SolrResourceLoader(SolrResourceLoader.locateSolrHome()));
+            controller.start();
+
+            for (int i = 0; i < 20; i++) {
+                final SolrInputDocument doc = new SolrInputDocument();
+                doc.setField("content", i % 2 == 0 ? "みかん" : "りんご");
+                doc.setField(config.getExpiresField(), DateUtil
+                        .getThreadLocalDateFormat().format(new Date()));
+                controller.add(doc);
+            }
+            controller.commit();
+            Thread.sleep(5 * 1000);
+
+            final SolrDocumentList solrDocuments = suggestSolrServer
+                    .select("*:*");
+            assertEquals(2, solrDocuments.getNumFound());
+            for (final SolrDocument solrDocument : solrDocuments) {
+                assertEquals("10", solrDocument
+                        .getFieldValue(SuggestConstants.SuggestFieldNames.COUNT)
+                        .toString());
+            }
+
+            controller.close();
+        } catch (final Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
     public void test_update_multifield() {
         final SuggestSolrServer suggestSolrServer = TestUtils
                 .createSuggestSolrServer();
@@ -417,4 +542,53 @@ public class SuggestUpdateControllerTest extends TestCase {
             fail(e.getMessage());
         }
     }
+
+    public void test_checkpointAfterCommitApplied() throws Exception {
+        final SuggestSolrServer suggestSolrServer = TestUtils
+                .createSuggestSolrServer();
+        suggestSolrServer.deleteAll();
+        suggestSolrServer.commit();
+
+        final File dir = File.createTempFile("tlog", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        final File checkpointFile = new File(dir,
+                TransactionLogUtil.CHECKPOINT_FILENAME);
+        try {
+            final SuggestUpdateConfig config = TestUtils
+                    .getSuggestUpdateConfig();
+            final SuggestUpdateController controller = new SuggestUpdateController(
+                    config, getSuggestFieldInfoList(config, false),
+                new SolrResourceLoader(SolrResourceLoader.locateSolrHome()));
+            controller.setCheckpointFile(checkpointFile);
+            controller.start();
+
+            final SolrInputDocument doc = new SolrInputDocument();
+            doc.setField("content", "みかん");
+            doc.setField(config.getExpiresField(), DateUtil
+                    .getThreadLocalDateFormat().format(new Date()));
+            controller.add(doc);
+            controller.request(new SuggestUpdateController.Request(
+                    RequestType.COMMIT, new TransactionLogPosition(new File(
+                            dir, "tlog.0000000000000000001"), 100)));
+
+            for (int i = 0; i < 100 && !checkpointFile.exists(); i++) {
+                Thread.sleep(100);
+            }
+            // the checkpoint is written after the commit is applied
+            assertEquals(1, suggestSolrServer.select("*:*").getNumFound());
+            final TransactionLogPosition position = TransactionLogUtil
+                    .loadCheckpoint(checkpointFile);
+            assertNotNull(position);
+            assertEquals("tlog.0000000000000000001", position.getFile()
+                    .getName());
+            assertEquals(100, position.getPosition());
+            assertTrue(controller.pendingCommitQueue.isEmpty());
+
+            controller.close();
+        } finally {
+            checkpointFile.delete();
+            dir.delete();
+        }
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest.index;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class BadWordFilterTest extends TestCase {
+    public void test_exact() throws Exception {
+        final BadWordFilter filter = new BadWordFilter(Arrays.asList(
+                "検索エンジン", " fess ", ""));
+        assertEquals(2, filter.getRuleNum());
+        assertTrue(filter.isBadWord("検索エンジン"));
+        assertTrue(filter.isBadWord("fess"));
+        assertFalse(filter.isBadWord("検索"));
+        assertFalse(filter.isBadWord("検索エンジンズ"));
+        assertFalse(filter.isBadWord(""));
+    }
+
+    public void test_prefix() throws Exception {
+        final BadWordFilter filter = new BadWordFilter(Arrays.asList("検索*",
+                "検索エンジン"), true);
+        assertTrue(filter.isBadWord("検索"));
+        assertTrue(filter.isBadWord("検索エンジン"));
+        assertTrue(filter.isBadWord("検索サーバー"));
+        assertFalse(filter.isBadWord("全文検索"));
+    }
+
+    public void test_substring() throws Exception {
+        final BadWordFilter filter = new BadWordFilter(Arrays.asList(
+                "*エンジン*", "*abc*", "*"), true);
+        assertTrue(filter.isBadWord("エンジン"));
+        assertTrue(filter.isBadWord("検索エンジンです"));
+        assertTrue(filter.isBadWord("xabcx"));
+        assertTrue(filter.isBadWord("*"));
+        assertFalse(filter.isBadWord("ab"));
+        assertFalse(filter.isBadWord("エンジ"));
+    }
+
+    public void test_load() throws Exception {
+        final BadWordFilter filter = BadWordFilter
+                .load(new ByteArrayInputStream("foo\nbar*\n*baz*\n"
+                        .getBytes("UTF-8")), true);
+        assertEquals(3, filter.getRuleNum());
+        assertEquals(2, filter.getWildcardRuleNum());
+        assertTrue(filter.isBadWord("foo"));
+        assertTrue(filter.isBadWord("barbar"));
+        assertTrue(filter.isBadWord("foobazfoo"));
+        assertFalse(filter.isBadWord("foofoo"));
+        assertFalse(BadWordFilter.EMPTY.isBadWord("foo"));
+    }
+
+    public void test_wildcardDisabled() throws Exception {
+        final BadWordFilter filter = BadWordFilter
+                .load(new ByteArrayInputStream("foo\nbar*\n*baz*\n*qux\n"
+                        .getBytes("UTF-8")));
+        assertEquals(4, filter.getRuleNum());
+        assertEquals(2, filter.getWildcardRuleNum());
+        assertTrue(filter.isBadWord("foo"));
+        assertTrue(filter.isBadWord("bar*"));
+        assertTrue(filter.isBadWord("*baz*"));
+        assertTrue(filter.isBadWord("*qux"));
+        assertFalse(filter.isBadWord("barbar"));
+        assertFalse(filter.isBadWord("foobazfoo"));
+        assertFalse(filter.isBadWord("qux"));
+    }
+}
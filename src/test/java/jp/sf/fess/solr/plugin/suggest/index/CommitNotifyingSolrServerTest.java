@@ -0,0 +1,86 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest.index;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+
+public class CommitNotifyingSolrServerTest extends TestCase {
+    private final AtomicInteger requestNum = new AtomicInteger();
+
+    private final AtomicBoolean failing = new AtomicBoolean(false);
+
+    private final AtomicInteger commitNum = new AtomicInteger();
+
+    private final CommitNotifyingSolrServer server = new CommitNotifyingSolrServer(
+            new SolrServer() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public NamedList<Object> request(final SolrRequest request)
+                        throws SolrServerException, IOException {
+                    requestNum.incrementAndGet();
+                    if (failing.get()) {
+                        throw new SolrServerException("failed");
+                    }
+                    return new NamedList<Object>();
+                }
+
+                @Override
+                public void shutdown() {
+                }
+            }, new CommitNotifyingSolrServer.CommitListener() {
+                @Override
+                public void onCommit() {
+                    commitNum.incrementAndGet();
+                }
+            });
+
+    public void test_commit() throws Exception {
+        final SolrInputDocument doc = new SolrInputDocument();
+        doc.setField("id", "1");
+        server.add(doc);
+        server.deleteByQuery("*:*");
+        assertEquals(2, requestNum.get());
+        assertEquals(0, commitNum.get());
+
+        server.commit();
+        assertEquals(3, requestNum.get());
+        assertEquals(1, commitNum.get());
+    }
+
+    public void test_failedCommit() throws Exception {
+        failing.set(true);
+        try {
+            server.commit();
+            fail();
+        } catch (final SolrServerException e) {
+            // expected
+        }
+        assertEquals(1, requestNum.get());
+        assertEquals(0, commitNum.get());
+    }
+}
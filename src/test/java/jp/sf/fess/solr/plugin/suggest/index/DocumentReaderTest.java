@@ -16,14 +16,17 @@
 
 package jp.sf.fess.solr.plugin.suggest.index;
 
+import java.io.StringReader;
 import java.util.*;
 
 import jp.sf.fess.solr.plugin.suggest.TestUtils;
+import jp.sf.fess.solr.plugin.suggest.entity.SuggestFieldInfo;
 import jp.sf.fess.suggest.converter.SuggestReadingConverter;
 import jp.sf.fess.suggest.entity.SuggestItem;
 import jp.sf.fess.suggest.normalizer.SuggestNormalizer;
 import junit.framework.TestCase;
 
+import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.util.TokenizerFactory;
 import org.apache.solr.common.SolrInputDocument;
 
@@ -249,4 +252,38 @@ public class DocumentReaderTest extends TestCase {
         }
 
     }
+
+    public void test_reuseTokenizer() throws Exception {
+        final List<String> targetFieldList = new ArrayList<String>();
+        targetFieldList.add("content");
+        final SuggestFieldInfo suggestFieldInfo = new SuggestFieldInfo(
+                targetFieldList, TestUtils.getTokenizerFactory(TestUtils
+                        .getSuggestUpdateConfig()),
+                TestUtils.createConverter(), TestUtils.createNormalizer());
+        final List<String> labelFieldList = new ArrayList<String>();
+        final List<String> roleFieldList = new ArrayList<String>();
+
+        final SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.setField("content", "検索エンジン");
+        DocumentReader reader = new DocumentReader(suggestFieldInfo, doc1,
+                labelFieldList, roleFieldList, "", "", BadWordFilter.EMPTY);
+        assertEquals("検索", reader.next().getText());
+        assertEquals("エンジン", reader.next().getText());
+        assertEquals("検索エンジン", reader.next().getText());
+        assertNull(reader.next());
+
+        final Tokenizer tokenizer = suggestFieldInfo
+                .getTokenizer(new StringReader(""));
+        tokenizer.close();
+
+        final SolrInputDocument doc2 = new SolrInputDocument();
+        doc2.setField("content", "柿");
+        reader = new DocumentReader(suggestFieldInfo, doc2, labelFieldList,
+                roleFieldList, "", "", BadWordFilter.EMPTY);
+        assertEquals("柿", reader.next().getText());
+        assertNull(reader.next());
+
+        assertSame(tokenizer,
+                suggestFieldInfo.getTokenizer(new StringReader("")));
+    }
 }
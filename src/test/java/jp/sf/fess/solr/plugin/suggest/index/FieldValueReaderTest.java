@@ -0,0 +1,57 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest.index;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collection;
+
+import jp.sf.fess.suggest.normalizer.FullWidthToHalfWidthAlphabetNormalizer;
+import jp.sf.fess.suggest.normalizer.SuggestNormalizer;
+import junit.framework.TestCase;
+
+public class FieldValueReaderTest extends TestCase {
+    public void test_read() throws Exception {
+        final Collection<Object> values = Arrays.<Object> asList("abc def",
+                "ghi");
+        assertEquals("abc def ghi ", read(new FieldValueReader(values, null,
+                0)));
+        assertEquals("abc def ghi ", read(new FieldValueReader(values, null,
+                0, 2)));
+        assertEquals("abc d", read(new FieldValueReader(values, null, 5)));
+    }
+
+    public void test_normalize() throws Exception {
+        final SuggestNormalizer normalizer = new FullWidthToHalfWidthAlphabetNormalizer();
+        final Collection<Object> values = Arrays.<Object> asList(
+                "ａａａａ ｂｂｂｂ ｃｃｃｃ ｄｄｄｄ", "ｅｅｅｅ");
+        assertEquals("aaaa bbbb cccc dddd eeee ", read(new FieldValueReader(
+                values, normalizer, 0, 6)));
+    }
+
+    private String read(final Reader reader) throws IOException {
+        final StringBuilder buf = new StringBuilder();
+        final char[] cbuf = new char[3];
+        int n;
+        while ((n = reader.read(cbuf, 0, cbuf.length)) != -1) {
+            buf.append(cbuf, 0, n);
+        }
+        reader.close();
+        return buf.toString();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest.index;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.update.UpdateLog;
+
+public class TransactionLogReaderTest extends TestCase {
+    // offsets of the records in tlog.0000000000000000059
+    private static final long ADD_POSITION = 232;
+
+    private static final long DELETE_BY_QUERY_POSITION = 14213;
+
+    private static final long COMMIT_POSITION = 14299;
+
+    private static final long END_POSITION = 14320;
+
+    private File tlogFile;
+
+    private File tempFile;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        final File classPath = new File(this.getClass().getClassLoader()
+                .getResource("").getPath());
+        tlogFile = new File(classPath, "tlog.0000000000000000059");
+        assertEquals(END_POSITION, tlogFile.length());
+        tempFile = File.createTempFile("tlog", "");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        tempFile.delete();
+        super.tearDown();
+    }
+
+    public void test_read() throws Exception {
+        try (TransactionLogReader reader = new TransactionLogReader(tlogFile,
+                0)) {
+            List<?> record = (List<?>) reader.next();
+            assertEquals(UpdateLog.ADD, getOperation(record));
+            final SolrInputDocument doc = (SolrInputDocument) record.get(2);
+            assertEquals(
+                    "http://fess.sourceforge.jp/ja/;type=au,docomo,pc,softbank",
+                    doc.getFieldValue("id"));
+            assertEquals(DELETE_BY_QUERY_POSITION, reader.position());
+
+            record = (List<?>) reader.next();
+            assertEquals(UpdateLog.DELETE_BY_QUERY, getOperation(record));
+            assertTrue(record.get(2).toString()
+                    .startsWith("expires_dt:[* TO 2013-12-23T02:12:42.376Z]"));
+            assertEquals(COMMIT_POSITION, reader.position());
+
+            record = (List<?>) reader.next();
+            assertEquals(UpdateLog.COMMIT, getOperation(record));
+            assertEquals(END_POSITION, reader.position());
+
+            assertNull(reader.next());
+            assertEquals(END_POSITION, reader.position());
+        }
+    }
+
+    public void test_resume() throws Exception {
+        try (TransactionLogReader reader = new TransactionLogReader(tlogFile,
+                DELETE_BY_QUERY_POSITION)) {
+            List<?> record = (List<?>) reader.next();
+            assertEquals(UpdateLog.DELETE_BY_QUERY, getOperation(record));
+            assertEquals(COMMIT_POSITION, reader.position());
+
+            record = (List<?>) reader.next();
+            assertEquals(UpdateLog.COMMIT, getOperation(record));
+            assertNull(reader.next());
+        }
+
+        // a position in the header starts from the first record
+        for (final long position : new long[] { 0, 10, ADD_POSITION }) {
+            try (TransactionLogReader reader = new TransactionLogReader(
+                    tlogFile, position)) {
+                final List<?> record = (List<?>) reader.next();
+                assertEquals(UpdateLog.ADD, getOperation(record));
+                assertEquals(DELETE_BY_QUERY_POSITION, reader.position());
+            }
+        }
+    }
+
+    public void test_truncated() throws Exception {
+        final byte[] bytes = Files.readAllBytes(tlogFile.toPath());
+        // the last record is being written
+        final int truncated = (int) COMMIT_POSITION + 10;
+        write(bytes, 0, truncated, false);
+
+        try (TransactionLogReader reader = new TransactionLogReader(tempFile,
+                0)) {
+            assertEquals(UpdateLog.ADD, getOperation((List<?>) reader.next()));
+            assertEquals(UpdateLog.DELETE_BY_QUERY,
+                    getOperation((List<?>) reader.next()));
+            assertNull(reader.next());
+            assertEquals(COMMIT_POSITION, reader.position());
+            assertNull(reader.next());
+            assertEquals(COMMIT_POSITION, reader.position());
+
+            write(bytes, truncated, bytes.length, true);
+            assertEquals(UpdateLog.COMMIT,
+                    getOperation((List<?>) reader.next()));
+            assertEquals(END_POSITION, reader.position());
+        }
+    }
+
+    public void test_truncatedHeader() throws Exception {
+        final byte[] bytes = Files.readAllBytes(tlogFile.toPath());
+        write(bytes, 0, 100, false);
+
+        try (TransactionLogReader reader = new TransactionLogReader(tempFile,
+                0)) {
+            assertNull(reader.next());
+
+            write(bytes, 100, bytes.length, true);
+            assertEquals(UpdateLog.ADD, getOperation((List<?>) reader.next()));
+            assertEquals(DELETE_BY_QUERY_POSITION, reader.position());
+        }
+    }
+
+    private void write(final byte[] bytes, final int from, final int to,
+            final boolean append) throws IOException {
+        try (OutputStream out = new FileOutputStream(tempFile, append)) {
+            out.write(bytes, from, to - from);
+        }
+    }
+
+    private int getOperation(final List<?> record) {
+        return (Integer) record.get(0) & UpdateLog.OPERATION_MASK;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.suggest.util;
+
+import java.io.File;
+import java.util.List;
+
+import jp.sf.fess.solr.plugin.suggest.entity.TransactionLogPosition;
+import junit.framework.TestCase;
+
+public class TransactionLogUtilTest extends TestCase {
+    private File dir;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("tlog", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        for (final File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+        super.tearDown();
+    }
+
+    public void test_checkpoint() throws Exception {
+        final File checkpointFile = new File(dir,
+                TransactionLogUtil.CHECKPOINT_FILENAME);
+        assertNull(TransactionLogUtil.loadCheckpoint(checkpointFile));
+
+        final File tlogFile = new File(dir, "tlog.0000000000000000002");
+        TransactionLogUtil.saveCheckpoint(checkpointFile,
+                new TransactionLogPosition(tlogFile, 1234));
+        TransactionLogPosition position = TransactionLogUtil
+                .loadCheckpoint(checkpointFile);
+        assertEquals(tlogFile.getName(), position.getFile().getName());
+        assertEquals(1234, position.getPosition());
+
+        TransactionLogUtil.saveCheckpoint(checkpointFile,
+                new TransactionLogPosition(tlogFile, 5678));
+        position = TransactionLogUtil.loadCheckpoint(checkpointFile);
+        assertEquals(5678, position.getPosition());
+    }
+
+    public void test_getTransactionLogFiles() throws Exception {
+        assertTrue(new File(dir, "tlog.0000000000000000010").createNewFile());
+        assertTrue(new File(dir, "tlog.0000000000000000002").createNewFile());
+        assertTrue(new File(dir, TransactionLogUtil.CHECKPOINT_FILENAME)
+                .createNewFile());
+
+        final List<File> fileList = TransactionLogUtil
+                .getTransactionLogFiles(dir);
+        assertEquals(2, fileList.size());
+        assertEquals("tlog.0000000000000000002", fileList.get(0).getName());
+        assertEquals("tlog.0000000000000000010", fileList.get(1).getName());
+        assertFalse(TransactionLogUtil.endsWithCommit(fileList.get(0)));
+    }
+}
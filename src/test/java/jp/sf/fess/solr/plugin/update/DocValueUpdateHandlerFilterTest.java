@@ -0,0 +1,197 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.update;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.CommitUpdateCommand;
+import org.apache.solr.update.SolrCoreState;
+import org.apache.solr.util.RefCounted;
+import org.junit.Test;
+
+public class DocValueUpdateHandlerFilterTest {
+    @Test
+    public void testBatchedUpdate() throws IOException {
+        final IndexWriter writer = mock(IndexWriter.class);
+        final DocValueUpdateHandlerFilter filter = createFilter(10, writer);
+        final UpdateHandlerFilterChain chain = mock(UpdateHandlerFilterChain.class);
+
+        filter.addDoc(createCommand("1", 1), chain);
+        filter.addDoc(createCommand("2", 2), chain);
+        filter.addDoc(createCommand("1", 3), chain);
+        verify(writer, never()).updateNumericDocValue(any(Term.class),
+                anyString(), anyLong());
+
+        final CommitUpdateCommand commitCmd = mock(CommitUpdateCommand.class);
+        filter.commit(commitCmd, chain);
+        verify(writer, times(2)).updateNumericDocValue(any(Term.class),
+                anyString(), anyLong());
+        verify(writer).updateNumericDocValue(new Term("id", "1"), "boost",
+                3L);
+        verify(writer).updateNumericDocValue(new Term("id", "2"), "boost",
+                2L);
+        verify(writer, never()).updateNumericDocValue(new Term("id", "1"),
+                "boost", 1L);
+        verify(chain).commit(commitCmd);
+        assertEquals(0, filter.updateBuffer.size());
+    }
+
+    @Test
+    public void testFlushOnBatchSize() throws IOException {
+        final IndexWriter writer = mock(IndexWriter.class);
+        final DocValueUpdateHandlerFilter filter = createFilter(2, writer);
+        final UpdateHandlerFilterChain chain = mock(UpdateHandlerFilterChain.class);
+
+        filter.addDoc(createCommand("1", 1), chain);
+        verify(writer, never()).updateNumericDocValue(any(Term.class),
+                anyString(), anyLong());
+        filter.addDoc(createCommand("2", 2), chain);
+        verify(writer, times(2)).updateNumericDocValue(any(Term.class),
+                anyString(), anyLong());
+        assertEquals(0, filter.updateBuffer.size());
+    }
+
+    @Test
+    public void testImmediateUpdate() throws IOException {
+        final IndexWriter writer = mock(IndexWriter.class);
+        final DocValueUpdateHandlerFilter filter = createFilter(0, writer);
+        final UpdateHandlerFilterChain chain = mock(UpdateHandlerFilterChain.class);
+
+        assertEquals(1, filter.addDoc(createCommand("1", 1), chain));
+        verify(writer).updateNumericDocValue(new Term("id", "1"), "boost",
+                1L);
+        assertEquals(0, filter.updateBuffer.size());
+    }
+
+    @Test
+    public void testBinaryUpdate() throws IOException {
+        final IndexWriter writer = mock(IndexWriter.class);
+        final DocValueUpdateHandlerFilter filter = createFilter(10, writer);
+        final UpdateHandlerFilterChain chain = mock(UpdateHandlerFilterChain.class);
+
+        final AddUpdateCommand cmd = createCommand("1", 1);
+        final byte[] bytes = new byte[] { 1, 2, 3 };
+        cmd.getLuceneDocument().add(
+                new BinaryDocValuesField("vector", new BytesRef(bytes)));
+        cmd.getLuceneDocument().add(
+                new SortedDocValuesField("label", new BytesRef("a")));
+        filter.addDoc(cmd, chain);
+        // the value is copied when it is buffered
+        bytes[0] = 9;
+        filter.flush();
+
+        verify(writer).updateNumericDocValue(new Term("id", "1"), "boost",
+                1L);
+        verify(writer).updateBinaryDocValue(new Term("id", "1"), "vector",
+                new BytesRef(new byte[] { 1, 2, 3 }));
+        verify(writer, never()).updateBinaryDocValue(any(Term.class),
+                eq("label"), any(BytesRef.class));
+    }
+
+    @Test
+    public void testFailedUpdate() throws IOException {
+        final IndexWriter writer = mock(IndexWriter.class);
+        doThrow(new IllegalArgumentException("not a DocValues field"))
+                .when(writer).updateNumericDocValue(new Term("id", "1"),
+                        "nodv", 5L);
+        final DocValueUpdateHandlerFilter filter = createFilter(10, writer);
+        final UpdateHandlerFilterChain chain = mock(UpdateHandlerFilterChain.class);
+
+        final AddUpdateCommand cmd = createCommand("1", 1);
+        cmd.getLuceneDocument().add(new NumericDocValuesField("nodv", 5L));
+        filter.addDoc(cmd, chain);
+        filter.addDoc(createCommand("2", 2), chain);
+
+        // the failed update does not fail the commit
+        final CommitUpdateCommand commitCmd = mock(CommitUpdateCommand.class);
+        filter.commit(commitCmd, chain);
+        verify(writer).updateNumericDocValue(new Term("id", "1"), "boost",
+                1L);
+        verify(writer).updateNumericDocValue(new Term("id", "2"), "boost",
+                2L);
+        verify(chain).commit(commitCmd);
+        assertEquals(0, filter.updateBuffer.size());
+
+        // and is not retried
+        filter.commit(commitCmd, chain);
+        verify(writer, times(1)).updateNumericDocValue(new Term("id", "1"),
+                "nodv", 5L);
+        verify(chain, times(2)).commit(commitCmd);
+    }
+
+    private DocValueUpdateHandlerFilter createFilter(final int batchSize,
+            final IndexWriter writer) throws IOException {
+        final RefCounted<IndexWriter> iw = new RefCounted<IndexWriter>(writer) {
+            @Override
+            protected void close() {
+            }
+        };
+        final SolrCoreState coreState = mock(SolrCoreState.class);
+        when(coreState.getIndexWriter(any(SolrCore.class))).thenReturn(iw);
+        final FessUpdateHandler updateHandler = mock(FessUpdateHandler.class);
+        when(updateHandler.getSolrCoreState()).thenReturn(coreState);
+
+        // SolrCore is final and cannot be mocked, so the settings read from
+        // solrconfig.xml are set directly
+        final DocValueUpdateHandlerFilter filter = new DocValueUpdateHandlerFilter();
+        filter.updateHandler = updateHandler;
+        filter.batchSize = batchSize;
+        filter.flushInterval = 0;
+        return filter;
+    }
+
+    private AddUpdateCommand createCommand(final String id, final long boost) {
+        final ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("excmd", "update");
+        params.set("term", "id");
+        final SolrQueryRequest req = mock(SolrQueryRequest.class);
+        when(req.getParams()).thenReturn(params);
+
+        final Document doc = new Document();
+        doc.add(new StringField("id", id, Field.Store.YES));
+        doc.add(new NumericDocValuesField("boost", boost));
+        final AddUpdateCommand cmd = mock(AddUpdateCommand.class);
+        when(cmd.getReq()).thenReturn(req);
+        when(cmd.getLuceneDocument()).thenReturn(doc);
+        return cmd;
+    }
+}
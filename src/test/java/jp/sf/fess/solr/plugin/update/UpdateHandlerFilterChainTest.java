@@ -0,0 +1,87 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.update;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.sf.fess.solr.plugin.update.UpdateHandlerFilterChain.Operation;
+
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.CommitUpdateCommand;
+import org.junit.Test;
+
+public class UpdateHandlerFilterChainTest {
+    @Test
+    public void testIsOverriddenBy() {
+        final UpdateHandlerFilter filter = new CommitFilter(null);
+        assertTrue(Operation.COMMIT.isOverriddenBy(filter));
+        assertFalse(Operation.ADD_DOC.isOverriddenBy(filter));
+        assertFalse(Operation.CLOSE.isOverriddenBy(filter));
+        assertFalse(Operation.COMMIT
+                .isOverriddenBy(new UpdateHandlerFilter()));
+    }
+
+    @Test
+    public void testCreate() throws IOException {
+        final FessUpdateHandler updateHandler = mock(FessUpdateHandler.class);
+        final AddUpdateCommand addCmd = mock(AddUpdateCommand.class);
+        final CommitUpdateCommand commitCmd = mock(CommitUpdateCommand.class);
+        when(updateHandler.doAddDoc(addCmd)).thenReturn(1);
+
+        final List<String> calls = new ArrayList<String>();
+        final UpdateHandlerFilter[] filters = new UpdateHandlerFilter[] {
+                new CommitFilter(calls), new UpdateHandlerFilter(),
+                new CommitFilter(calls) };
+
+        final UpdateHandlerFilterChain addDocChain = UpdateHandlerFilterChain
+                .create(updateHandler, filters, Operation.ADD_DOC);
+        assertEquals(1, addDocChain.addDoc(addCmd));
+        assertEquals(1, addDocChain.addDoc(addCmd));
+
+        final UpdateHandlerFilterChain commitChain = UpdateHandlerFilterChain
+                .create(updateHandler, filters, Operation.COMMIT);
+        commitChain.commit(commitCmd);
+        commitChain.commit(commitCmd);
+        assertEquals(4, calls.size());
+        verify(updateHandler, times(2)).doCommit(commitCmd);
+    }
+
+    private static class CommitFilter extends UpdateHandlerFilter {
+        private final List<String> calls;
+
+        CommitFilter(final List<String> calls) {
+            this.calls = calls;
+        }
+
+        @Override
+        public void commit(final CommitUpdateCommand cmd,
+                final UpdateHandlerFilterChain chain) throws IOException {
+            calls.add("commit");
+            chain.commit(cmd);
+        }
+    }
+}
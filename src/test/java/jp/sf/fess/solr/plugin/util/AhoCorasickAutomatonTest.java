@@ -0,0 +1,90 @@
+/*
+ * Copyright 2009-2014 the CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package jp.sf.fess.solr.plugin.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AhoCorasickAutomatonTest {
+    @Test
+    public void testTransition() {
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton
+                .build(Arrays.asList("he", "she", "his", "hers"));
+        assertEquals(4, automaton.getPatternNum());
+
+        int node = AhoCorasickAutomaton.ROOT;
+        node = automaton.transition(node, 'h');
+        assertTrue(node > 0);
+        assertEquals(-1, automaton.getPatternId(node));
+        node = automaton.transition(node, 'e');
+        assertEquals(0, automaton.getPatternId(node));
+        assertEquals(-1, automaton.transition(node, 'x'));
+    }
+
+    @Test
+    public void testStep() {
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton
+                .build(Arrays.asList("he", "she", "his", "hers"));
+        assertEquals(Arrays.asList("4:she", "4:he", "6:hers"), match(
+                automaton, Arrays.asList("he", "she", "his", "hers"),
+                "ushers"));
+        assertEquals(Arrays.asList("4:his"), match(automaton,
+                Arrays.asList("he", "she", "his", "hers"), "this"));
+        assertEquals(new ArrayList<String>(), match(automaton,
+                Arrays.asList("he", "she", "his", "hers"), "abc"));
+    }
+
+    @Test
+    public void testDuplicatedPattern() {
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton
+                .build(Arrays.asList("検索", "エンジン", "検索"));
+        int state = AhoCorasickAutomaton.ROOT;
+        state = automaton.step(state, '検');
+        assertFalse(automaton.hasOutput(state));
+        state = automaton.step(state, '索');
+        assertEquals(0, automaton.getPatternId(state));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyPattern() {
+        AhoCorasickAutomaton.build(Arrays.asList("a", ""));
+    }
+
+    private List<String> match(final AhoCorasickAutomaton automaton,
+            final List<String> patterns, final String text) {
+        final List<String> list = new ArrayList<String>();
+        int state = AhoCorasickAutomaton.ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = automaton.step(state, text.charAt(i));
+            int node = automaton.getPatternId(state) >= 0 ? state : automaton
+                    .getOutputLink(state);
+            while (node >= 0) {
+                list.add(i + 1 + ":"
+                        + patterns.get(automaton.getPatternId(node)));
+                node = automaton.getOutputLink(node);
+            }
+        }
+        return list;
+    }
+}